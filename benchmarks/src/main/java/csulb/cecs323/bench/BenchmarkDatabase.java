@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * A throw-away embedded Derby database for one benchmark trial.  The CustomerOrders persistence
+ * unit is pointed at a fresh temp directory, so every trial starts from an empty schema and
+ * nothing is left behind in the project's database/ folder.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+    private final Path directory;
+    private final String url;
+    private final EntityManagerFactory factory;
+    private final Queue<EntityManager> managers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a new, empty database.
+     *
+     * @param overrides Extra persistence unit properties for this trial, on top of persistence.xml.
+     */
+    public BenchmarkDatabase(Map<String, String> overrides) {
+        try {
+            this.directory = Files.createTempDirectory("customer-orders-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.url = "jdbc:derby:" + directory.resolve("db") + ";create=true";
+        Map<String, String> properties = new HashMap<>(overrides);
+        properties.put("javax.persistence.jdbc.url", url);
+        this.factory = Persistence.createEntityManagerFactory("CustomerOrders", properties);
+        // Make EclipseLink log in and build the schema now, rather than in the first measured call.
+        this.factory.createEntityManager().close();
+    }
+
+    public BenchmarkDatabase() {
+        this(new HashMap<>());
+    }
+
+    public EntityManagerFactory getFactory() {
+        return factory;
+    }
+
+    /** A plain JDBC connection to the same database, for benchmarks that go around JPA. */
+    public Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(url);
+    }
+
+    /**
+     * An EntityManager that will be closed along with the database.  JMH tears down the
+     * benchmark-wide state before the per-thread state, so per-thread EntityManagers should come
+     * from here rather than being closed by the threads themselves.
+     */
+    public EntityManager createEntityManager() {
+        EntityManager manager = factory.createEntityManager();
+        managers.add(manager);
+        return manager;
+    }
+
+    @Override
+    public void close() {
+        for (EntityManager manager : managers) {
+            if (manager.isOpen()) manager.close();
+        }
+        factory.close();
+        try {
+            DriverManager.getConnection("jdbc:derby:" + directory.resolve("db") + ";shutdown=true");
+        } catch (SQLException expected) {
+            // Derby always reports a successful database shutdown as an SQLException.
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
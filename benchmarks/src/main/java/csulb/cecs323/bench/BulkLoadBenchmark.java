@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.CustomerOrders;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Persisting a feed of rows: CustomerOrders.createEntity in one transaction versus BulkLoader at
+ * different chunk sizes.  Every invocation writes rows new Products or Customers with keys that
+ * have not been used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BulkLoadBenchmark {
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"100", "1000"})
+    public int chunkSize;
+
+    BenchmarkDatabase database;
+    EntityManager manager;
+
+    /** Makes every invocation's keys unique. */
+    int batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        manager = database.createEntityManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private List<Products> products() {
+        String prefix = "B" + (batch++) + "-";
+        return IntStream.range(0, rows)
+                .mapToObj(i -> new Products(prefix + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), 100))
+                .collect(Collectors.toList());
+    }
+
+    private List<Customers> customers() {
+        String prefix = "B" + (batch++) + "-";
+        return IntStream.range(0, rows)
+                .mapToObj(i -> new Customers("Last" + i, "First", "1 Street", "90840", prefix + i))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void createEntityProducts() {
+        List<Products> feed = products();
+        manager.getTransaction().begin();
+        new CustomerOrders(manager).createEntity(feed);
+        manager.getTransaction().commit();
+        manager.clear();
+    }
+
+    @Benchmark
+    public long bulkLoadProducts() {
+        return new BulkLoader(manager, chunkSize).load(products()).getRows();
+    }
+
+    @Benchmark
+    public long bulkLoadCustomers() {
+        return new BulkLoader(manager, chunkSize).load(customers()).getRows();
+    }
+}
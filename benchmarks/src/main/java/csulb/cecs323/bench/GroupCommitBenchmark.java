@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.GroupCommitOrderWriter;
+import csulb.cecs323.app.OrderEntryService;
+import csulb.cecs323.app.OrderRequest;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Orders per second from many concurrent clerks: every order in its own transaction through
+ * OrderEntryService.placeOrder, against GroupCommitOrderWriter sharing one commit between up to
+ * maxBatch orders.  The average time per operation is the latency each clerk sees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(16)
+@Fork(1)
+public class GroupCommitBenchmark {
+    @Param({"16", "64"})
+    public int maxBatch;
+
+    @Param({"5"})
+    public int maxDelayMillis;
+
+    static final int CATALOG_SIZE = 1000;
+    static final int CUSTOMER_COUNT = 1000;
+
+    BenchmarkDatabase database;
+    GroupCommitOrderWriter writer;
+    long firstCustomerId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, CATALOG_SIZE).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), Integer.MAX_VALUE)));
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMER_COUNT; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+        firstCustomerId = customers.get(0).getCustomer_id();
+        writer = new GroupCommitOrderWriter(database.getFactory(), maxBatch,
+                Duration.ofMillis(maxDelayMillis), GroupCommitOrderWriter.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.close();
+        database.close();
+    }
+
+    /** Each benchmark thread's own EntityManager, for the one-transaction-per-order baseline. */
+    @State(Scope.Thread)
+    public static class Clerk {
+        EntityManager manager;
+
+        @Setup(Level.Trial)
+        public void setUp(GroupCommitBenchmark benchmark) {
+            manager = benchmark.database.createEntityManager();
+        }
+    }
+
+    @Benchmark
+    public Orders oneCommitPerOrder(Clerk clerk) {
+        return OrderEntryService.placeOrder(clerk.manager, randomOrder());
+    }
+
+    @Benchmark
+    public Orders groupCommit() {
+        return writer.submit(randomOrder()).join();
+    }
+
+    private OrderRequest randomOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(CATALOG_SIZE);
+        return new OrderRequest(firstCustomerId + random.nextInt(CUSTOMER_COUNT), "Bench", Arrays.asList(
+                new OrderRequest.Line("UPC" + first, 1),
+                new OrderRequest.Line("UPC" + (first + 1) % CATALOG_SIZE, 1)));
+    }
+}
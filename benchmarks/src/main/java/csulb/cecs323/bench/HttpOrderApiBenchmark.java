@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.GroupCommitOrderWriter;
+import csulb.cecs323.http.OrderHttpServer;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Requests to OrderHttpServer with {@value #IN_FLIGHT} of them in flight at once, the way a
+ * busy storefront would send them.  Each invocation sends that many and waits for every answer,
+ * so the time reported is per request.  orders places them through a GroupCommitOrderWriter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class HttpOrderApiBenchmark {
+    static final int IN_FLIGHT = 1000;
+    static final int CATALOG_SIZE = 1000;
+    static final int CUSTOMER_COUNT = 1000;
+
+    BenchmarkDatabase database;
+    GroupCommitOrderWriter writer;
+    OrderHttpServer server;
+    HttpClient client;
+    String base;
+    long firstCustomerId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, CATALOG_SIZE).mapToObj(i ->
+                new Products(String.format("UPC%04d", i), "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), Integer.MAX_VALUE)));
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMER_COUNT; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+        manager.close();
+        firstCustomerId = customers.get(0).getCustomer_id();
+        writer = new GroupCommitOrderWriter(database.getFactory());
+        server = new OrderHttpServer(database.getFactory(), new InetSocketAddress("localhost", 0),
+                writer, OrderHttpServer.DEFAULT_THREADS);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        writer.close();
+        database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public int productPages() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return sendAll(() -> HttpRequest.newBuilder(URI.create(base + "/products?limit=20&after="
+                + String.format("UPC%04d", random.nextInt(CATALOG_SIZE)))).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public int orders() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return sendAll(() -> HttpRequest.newBuilder(URI.create(base + "/orders"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"customerId\":"
+                        + (firstCustomerId + random.nextInt(CUSTOMER_COUNT))
+                        + ",\"soldBy\":\"Bench\",\"lines\":[{\"upc\":\""
+                        + String.format("UPC%04d", random.nextInt(CATALOG_SIZE)) + "\",\"quantity\":1}]}"))
+                .build());
+    }
+
+    /** Send IN_FLIGHT requests at once, wait for them all, and fail on anything but a success. */
+    private int sendAll(Supplier<HttpRequest> requests) {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            responses.add(client.sendAsync(requests.get(), HttpResponse.BodyHandlers.discarding()));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            int status = response.join().statusCode();
+            if (status / 100 != 2) throw new IllegalStateException("The server answered " + status);
+            succeeded++;
+        }
+        return succeeded;
+    }
+}
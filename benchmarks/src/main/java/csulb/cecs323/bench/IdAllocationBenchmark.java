@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.IdAllocationCustomizer;
+import csulb.cecs323.model.Customers;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent customer registration, one customer per transaction, with ids reserved from the
+ * ID_BLOCKS table one at a time (allocationSize = 1, a sequence round trip per insert) versus in
+ * blocks.  Run with something like -t 8 to see the contention on the sequence row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(4)
+public class IdAllocationBenchmark {
+    @Param({"1", "50", "500"})
+    public int allocationSize;
+
+    BenchmarkDatabase database;
+
+    /** Keeps the (first, last, phone) unique constraint happy across all threads. */
+    final AtomicLong phones = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(IdAllocationCustomizer.ALLOCATION_SIZE, Integer.toString(allocationSize));
+        database = new BenchmarkDatabase(properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /** Each benchmark thread registers customers through its own EntityManager. */
+    @State(Scope.Thread)
+    public static class Clerk {
+        EntityManager manager;
+
+        @Setup(Level.Trial)
+        public void setUp(IdAllocationBenchmark benchmark) {
+            manager = benchmark.database.createEntityManager();
+        }
+    }
+
+    @Benchmark
+    public long registerCustomer(Clerk clerk) {
+        Customers customer = new Customers("Last", "First", "1 Street", "90840",
+                Long.toString(phones.incrementAndGet()));
+        clerk.manager.getTransaction().begin();
+        clerk.manager.persist(customer);
+        clerk.manager.getTransaction().commit();
+        clerk.manager.clear();
+        return customer.getCustomer_id();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.OrderBuilder;
+import csulb.cecs323.model.*;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Checks the identity rules that the entities' equals and hashCode have to keep, against a
+ * throw-away database.  This is not a benchmark, so run it by name rather than through JMH:
+ *
+ *     java -cp target/benchmarks.jar csulb.cecs323.bench.IdentityCheck
+ *
+ * It checks that em.find hands back the one managed instance of a row (an identity map hit),
+ * that an entity read back in another EntityManager, from the shared cache or from the database,
+ * equals the one that was persisted and hashes the same, and that Orders and Order_lines hash
+ * the same as their key classes.  The first broken rule stops the check with an AssertionError.
+ */
+public class IdentityCheck {
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2021, 1, 1, 0, 0);
+    private static final int PRODUCTS = 20;
+    private static final int CUSTOMERS = 5;
+    private static final int ORDERS = 50;
+    private static final int LINES_PER_ORDER = 3;
+
+    public static void main(String[] args) {
+        try (BenchmarkDatabase database = new BenchmarkDatabase()) {
+            new IdentityCheck().run(database);
+        }
+        System.out.println("IdentityCheck: all checks passed");
+    }
+
+    private void run(BenchmarkDatabase database) {
+        List<Products> products = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(new Products(String.format("IDCHECK%05d", i), "Product " + i, "Maker",
+                    "Model " + i, Money.ofCents(100 + i), 1000));
+        }
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customers.add(new Customers("Last" + i, "First" + i, i + " Main St", "90840",
+                    "562-555-" + String.format("%04d", i)));
+        }
+        List<Orders> orders = new ArrayList<>();
+        List<Order_lines> lines = new ArrayList<>();
+
+        EntityManager loader = database.createEntityManager();
+        new BulkLoader(loader).load(products);
+        new BulkLoader(loader).load(customers);
+        loader.getTransaction().begin();
+        for (int i = 0; i < ORDERS; i++) {
+            OrderBuilder order = new OrderBuilder(customers.get(i % CUSTOMERS), EPOCH.plusMinutes(i), "Clerk");
+            for (int j = 0; j < LINES_PER_ORDER; j++) {
+                order.add(products.get((i + j) % PRODUCTS), j + 1);
+            }
+            // Hash the order before it has an id, as a HashSet built while taking orders would.
+            Set<Orders> before = new HashSet<>();
+            before.add(order.getOrder());
+            order.persist(loader);
+            check(order.getOrder().getOrder_id() != 0, "persist did not assign an order_id");
+            check(before.contains(order.getOrder()), "an order hashes differently once it has an order_id");
+            orders.add(order.getOrder());
+            lines.addAll(order.getLines());
+        }
+        loader.getTransaction().commit();
+
+        // In the EntityManager that persisted them, find is an identity map hit.
+        for (Orders order : orders) {
+            check(loader.find(Orders.class, order.getOrder_id()) == order,
+                    "find did not return the managed instance of order " + order.getOrder_id());
+        }
+        // BulkLoader detaches what it loads, so the first find reads the row in again.
+        for (Products product : products) {
+            Products managed = loader.find(Products.class, product.getUPC());
+            checkEqual(product, managed, "product " + product.getUPC());
+            check(loader.find(Products.class, product.getUPC()) == managed,
+                    "a second find of product " + product.getUPC() + " missed the identity map");
+        }
+        for (Customers customer : customers) {
+            Customers managed = loader.find(Customers.class, customer.getCustomer_id());
+            checkEqual(customer, managed, "customer " + customer.getCustomer_id());
+            check(loader.find(Customers.class, customer.getCustomer_id()) == managed,
+                    "a second find of customer " + customer.getCustomer_id() + " missed the identity map");
+        }
+
+        // Read back from the shared cache, and then once more from the database.
+        checkReload(database, orders, lines, products, customers, "the shared cache");
+        database.getFactory().getCache().evictAll();
+        checkReload(database, orders, lines, products, customers, "the database");
+
+        // The entities and their key classes have to agree, or a lookup by key misses.
+        for (Orders order : orders) {
+            Orders_pk key = new Orders_pk(order.getCustomer().getCustomer_id(), order.getOrder_date());
+            check(key.equals(new Orders_pk(key.getCustomer(), key.getOrder_date())), "Orders_pk is not equal to a copy of itself");
+            check(order.hashCode() == key.hashCode(), "order " + order.getOrder_id() + " hashes differently than its Orders_pk");
+        }
+        for (Order_lines line : lines) {
+            Order_lines_pk key = new Order_lines_pk(line.getOrder().getOrder_id(), line.getProduct().getUPC());
+            check(key.equals(new Order_lines_pk(key.getOrder(), key.getProduct())), "Order_lines_pk is not equal to a copy of itself");
+            check(line.hashCode() == key.hashCode(), "a line of order " + key.getOrder() + " hashes differently than its Order_lines_pk");
+        }
+    } // End of run method
+
+    /**
+     * Read everything back in a new EntityManager and check that it matches what was persisted:
+     * find is an identity map hit there as well, each entity equals and hashes the same as the
+     * original, and a HashSet of the originals finds every one that was read back.
+     */
+    private void checkReload(BenchmarkDatabase database, List<Orders> orders, List<Order_lines> lines,
+                             List<Products> products, List<Customers> customers, String source) {
+        EntityManager manager = database.createEntityManager();
+        for (Orders order : orders) {
+            Orders reloaded = manager.find(Orders.class, order.getOrder_id());
+            check(reloaded != null, "order " + order.getOrder_id() + " is missing from " + source);
+            check(reloaded != order, "order " + order.getOrder_id() + " from " + source + " is the persisting EntityManager's instance");
+            check(manager.find(Orders.class, order.getOrder_id()) == reloaded,
+                    "a second find of order " + order.getOrder_id() + " missed the identity map");
+            checkEqual(order, reloaded, "order " + order.getOrder_id() + " from " + source);
+        }
+        for (Products product : products) {
+            checkEqual(product, manager.find(Products.class, product.getUPC()), "product " + product.getUPC() + " from " + source);
+        }
+        for (Customers customer : customers) {
+            checkEqual(customer, manager.find(Customers.class, customer.getCustomer_id()),
+                    "customer " + customer.getCustomer_id() + " from " + source);
+        }
+        List<Order_lines> reloaded = manager.createQuery(
+                "SELECT l FROM Order_lines l WHERE l.product.UPC LIKE 'IDCHECK%'", Order_lines.class).getResultList();
+        check(reloaded.size() == lines.size(), "read " + reloaded.size() + " order lines from " + source + ", expected " + lines.size());
+        Set<Order_lines> persisted = new HashSet<>(lines);
+        for (Order_lines line : reloaded) {
+            check(persisted.contains(line), "a line of order " + line.getOrder().getOrder_id() + " from " + source
+                    + " is not in the set of persisted lines");
+        }
+        check(new HashSet<>(reloaded).containsAll(lines), "a persisted line is not in the set of lines read from " + source);
+        manager.close();
+    } // End of checkReload method
+
+    private static void checkEqual(Object expected, Object actual, String what) {
+        check(actual != null, what + " is missing");
+        check(expected.equals(actual) && actual.equals(expected), what + " is not equal to the one persisted");
+        check(expected.hashCode() == actual.hashCode(), what + " hashes differently than the one persisted");
+        check(Objects.equals(expected.toString(), actual.toString()), what + " reads back as " + actual + ", not " + expected);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.ContentionRetry;
+import csulb.cecs323.app.InsufficientStockException;
+import csulb.cecs323.app.InventoryReservations;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Many threads taking stock from a small set of products at once.  Measures reservations/sec
+ * for single-product reservations and for whole five-line orders reserved in one JDBC batch.
+ * <p>
+ * There is deliberately less stock than the threads will ask for, so products sell out during
+ * every trial.  After each iteration the benchmark checks that no product went negative and
+ * that every unit that left stock is accounted for by a successful reservation; if either check
+ * fails the benchmark fails.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(8)
+public class InventoryReservationBenchmark {
+    /** Fewer products means more threads fighting over the same rows. */
+    @Param({"1", "10", "100"})
+    public int productCount;
+
+    @Param({"2000"})
+    public int stockPerProduct;
+
+    BenchmarkDatabase database;
+
+    /** Units successfully reserved by all threads, over the whole trial. */
+    final AtomicLong reserved = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.getFactory().createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, productCount).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), stockPerProduct)));
+        manager.close();
+    }
+
+    /** Make sure nothing was oversold and no stock went missing. */
+    @TearDown(Level.Iteration)
+    public void checkStock() {
+        EntityManager manager = database.getFactory().createEntityManager();
+        long onHand = 0;
+        for (int i = 0; i < productCount; i++) {
+            int stock = manager.find(Products.class, "UPC" + i).getUnits_in_stock();
+            if (stock < 0) {
+                throw new IllegalStateException("UPC" + i + " was oversold, stock is " + stock);
+            }
+            onHand += stock;
+        }
+        manager.close();
+        long expected = (long) productCount * stockPerProduct - reserved.get();
+        if (onHand != expected) {
+            throw new IllegalStateException("Expected " + expected + " units on hand, found " + onHand);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Clerk {
+        EntityManager manager;
+
+        @Setup(Level.Trial)
+        public void setUp(InventoryReservationBenchmark benchmark) {
+            manager = benchmark.database.createEntityManager();
+        }
+    }
+
+    @Benchmark
+    public boolean reserveOne(Clerk clerk) {
+        String upc = "UPC" + ThreadLocalRandom.current().nextInt(productCount);
+        boolean ok = ContentionRetry.DEFAULT.run(() -> {
+            clerk.manager.getTransaction().begin();
+            try {
+                boolean result = InventoryReservations.reserve(clerk.manager, upc, 1);
+                clerk.manager.getTransaction().commit();
+                return result;
+            } finally {
+                if (clerk.manager.getTransaction().isActive()) clerk.manager.getTransaction().rollback();
+            }
+        });
+        if (ok) reserved.incrementAndGet();
+        return ok;
+    }
+
+    @Benchmark
+    public boolean reserveOrder(Clerk clerk) {
+        Map<String, Integer> order = new LinkedHashMap<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 5; i++) {
+            order.merge("UPC" + random.nextInt(productCount), 1, Integer::sum);
+        }
+        boolean ok = ContentionRetry.DEFAULT.run(() -> {
+            clerk.manager.getTransaction().begin();
+            try {
+                InventoryReservations.reserveAll(clerk.manager, order);
+                clerk.manager.getTransaction().commit();
+                return true;
+            } catch (InsufficientStockException soldOut) {
+                return false;
+            } finally {
+                if (clerk.manager.getTransaction().isActive()) clerk.manager.getTransaction().rollback();
+            }
+        });
+        if (ok) reserved.addAndGet(5);
+        return ok;
+    }
+}
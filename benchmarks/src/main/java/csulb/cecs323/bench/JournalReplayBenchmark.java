@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.JournaledOrderWriter;
+import csulb.cecs323.app.OrderJournal;
+import csulb.cecs323.app.OrderRequest;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Recovery time after a crash that left entries journaled but not applied.  Before each
+ * measurement, a new journal is filled with entries and closed.  recover times opening it,
+ * which reads every entry and checks its CRC.  replay times opening it and applying every
+ * entry to the database, which is what JournaledOrderWriter does on startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalReplayBenchmark {
+    @Param({"1000", "10000"})
+    public int entries;
+
+    static final int CATALOG_SIZE = 1000;
+    static final int CUSTOMER_COUNT = 1000;
+
+    BenchmarkDatabase database;
+    long firstCustomerId;
+    Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, CATALOG_SIZE).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), Integer.MAX_VALUE)));
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMER_COUNT; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+        firstCustomerId = customers.get(0).getCustomer_id();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /** A new journal, with its own name and so its own checkpoint, holding entries orders. */
+    @Setup(Level.Invocation)
+    public void fillJournal() throws IOException {
+        journalDirectory = Files.createTempDirectory("customer-orders-journal");
+        Random random = new Random(42);
+        try (OrderJournal journal = OrderJournal.open(journalDirectory)) {
+            CompletableFuture<Long> last = null;
+            for (int i = 0; i < entries; i++) {
+                int first = random.nextInt(CATALOG_SIZE);
+                last = journal.append(new OrderRequest(firstCustomerId + random.nextInt(CUSTOMER_COUNT), "Bench",
+                        Arrays.asList(new OrderRequest.Line("UPC" + first, 1),
+                                new OrderRequest.Line("UPC" + (first + 1) % CATALOG_SIZE, 1))));
+            }
+            last.join();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteJournal() throws IOException {
+        OrderJournalBenchmark.delete(journalDirectory);
+    }
+
+    @Benchmark
+    public long recover() {
+        try (OrderJournal journal = OrderJournal.open(journalDirectory)) {
+            return journal.getLastSequence();
+        }
+    }
+
+    @Benchmark
+    public long replay() throws InterruptedException {
+        try (OrderJournal journal = OrderJournal.open(journalDirectory);
+             JournaledOrderWriter writer = new JournaledOrderWriter(database.getFactory(), journal)) {
+            writer.awaitApplied(journal.getLastSequence(), Duration.ofMinutes(10));
+            return writer.getAppliedThrough();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.model.Order_lines_pk;
+import csulb.cecs323.model.Orders_pk;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HashMap lookups keyed by Orders_pk (an order's natural key) and Order_lines_pk, the kind of
+ * lookup that EclipseLink's identity maps and the app's own maps do.  Every probe is a different (but equal) key object than the one stored,
+ * with its own LocalDateTime, as it would be after reading the key back from the database.
+ * boxedOrdersKey is the same lookup with a key hashed by Objects.hash, for comparison; run with
+ * -prof gc to see the allocation that it costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class KeyLookupBenchmark {
+    @Param({"100000"})
+    public int keyCount;
+
+    /** How many different keys are probed; a power of two. */
+    private static final int PROBES = 1024;
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2021, 1, 1, 0, 0);
+
+    Map<Orders_pk, Integer> orders;
+    Map<Order_lines_pk, Integer> lines;
+    Map<BoxedOrdersKey, Integer> boxedOrders;
+
+    Orders_pk[] orderProbes;
+    Order_lines_pk[] lineProbes;
+    BoxedOrdersKey[] boxedProbes;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        orders = new HashMap<>();
+        lines = new HashMap<>();
+        boxedOrders = new HashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            orders.put(ordersKey(i), i);
+            lines.put(linesKey(i), i);
+            boxedOrders.put(new BoxedOrdersKey(i % 1000, EPOCH.plusSeconds(i)), i);
+        }
+        orderProbes = new Orders_pk[PROBES];
+        lineProbes = new Order_lines_pk[PROBES];
+        boxedProbes = new BoxedOrdersKey[PROBES];
+        for (int p = 0; p < PROBES; p++) {
+            int i = (int) ((p * 2654435761L) % keyCount);
+            orderProbes[p] = ordersKey(i);
+            lineProbes[p] = linesKey(i);
+            boxedProbes[p] = new BoxedOrdersKey(i % 1000, EPOCH.plusSeconds(i));
+        }
+    }
+
+    private static Orders_pk ordersKey(int i) {
+        return new Orders_pk(i % 1000, EPOCH.plusSeconds(i));
+    }
+
+    private static Order_lines_pk linesKey(int i) {
+        return new Order_lines_pk(i, "UPC" + i % 5000);
+    }
+
+    @Benchmark
+    public Integer ordersKey() {
+        return orders.get(orderProbes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public Integer orderLinesKey() {
+        return lines.get(lineProbes[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public Integer boxedOrdersKey() {
+        return boxedOrders.get(boxedProbes[next++ & (PROBES - 1)]);
+    }
+
+    /** An Orders_pk hashed the way the model used to hash it. */
+    static final class BoxedOrdersKey {
+        final long customer;
+        final LocalDateTime order_date;
+
+        BoxedOrdersKey(long customer, LocalDateTime order_date) {
+            this.customer = customer;
+            this.order_date = order_date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BoxedOrdersKey && ((BoxedOrdersKey) o).customer == customer &&
+                    ((BoxedOrdersKey) o).order_date.equals(order_date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(customer, order_date);
+        }
+    }
+}
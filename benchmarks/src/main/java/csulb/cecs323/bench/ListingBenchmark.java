@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.CustomerOrders;
+import csulb.cecs323.app.Listings;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Reading the whole product catalog: getAllProducts (ReturnProducts into a List) versus
+ * streaming it through Listings, and keyset paging through it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+    @Param({"1000", "10000"})
+    public int catalogSize;
+
+    @Param({"500"})
+    public int fetchSize;
+
+    BenchmarkDatabase database;
+    EntityManager manager;
+    CustomerOrders customerOrders;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, catalogSize).mapToObj(i ->
+                new Products(String.format("UPC%08d", i), "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), 100)));
+        customerOrders = new CustomerOrders(manager);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public void getAllProducts(Blackhole hole) {
+        for (Products product : customerOrders.getAllProducts()) {
+            hole.consume(product);
+        }
+        manager.clear();
+    }
+
+    @Benchmark
+    public void streamProducts(Blackhole hole) {
+        try (Stream<Products> products = Listings.streamProducts(manager, fetchSize)) {
+            products.forEach(hole::consume);
+        }
+    }
+
+    @Benchmark
+    public void pageProducts(Blackhole hole) {
+        String after = "";
+        while (true) {
+            List<Products> page = Listings.productsPage(manager, after, fetchSize);
+            for (Products product : page) {
+                hole.consume(product);
+            }
+            if (page.size() < fetchSize) break;
+            after = page.get(page.size() - 1).getUPC();
+        }
+    }
+}
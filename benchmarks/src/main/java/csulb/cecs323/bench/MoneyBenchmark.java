@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.OrderBuilder;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.DecimalFormat;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals of big orders, in memory: the old doubles summed and put through a DecimalFormat,
+ * against cents in a long.  orderBuilderTotal is the real OrderBuilder.getTotalCents over
+ * lineCount Order_lines.  Run with -prof gc: the cents totals should allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+    @Param({"10000"})
+    public int lineCount;
+
+    double[] doublePrices;
+    long[] centPrices;
+    int[] quantities;
+    OrderBuilder order;
+    final DecimalFormat format = new DecimalFormat("0.00");
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        doublePrices = new double[lineCount];
+        centPrices = new long[lineCount];
+        quantities = new int[lineCount];
+        order = new OrderBuilder(new Customers("Last", "First", "1 Street", "90840", "555-0100"),
+                LocalDateTime.now(), "Bench");
+        for (int i = 0; i < lineCount; i++) {
+            centPrices[i] = 1 + random.nextInt(100_000);
+            doublePrices[i] = centPrices[i] / 100.0;
+            quantities[i] = 1 + random.nextInt(20);
+            Money price = Money.ofCents(centPrices[i]);
+            order.add(new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, price, 100), quantities[i], price);
+        }
+    }
+
+    @Benchmark
+    public double doubleTotal() {
+        double total = 0;
+        for (int i = 0; i < lineCount; i++) {
+            total += doublePrices[i] * quantities[i];
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long centsTotal() {
+        long total = 0;
+        for (int i = 0; i < lineCount; i++) {
+            total = Money.plus(total, Money.times(centPrices[i], quantities[i]));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long orderBuilderTotal() {
+        return order.getTotalCents();
+    }
+
+    /** What main used to print: the double total through a DecimalFormat. */
+    @Benchmark
+    public String formattedDoubleTotal() {
+        return format.format(doubleTotal());
+    }
+
+    @Benchmark
+    public String formattedCentsTotal() {
+        return Money.ofCents(orderBuilderTotal()).toString();
+    }
+}
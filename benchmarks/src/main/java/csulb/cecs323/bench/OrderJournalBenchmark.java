@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.GroupCommitOrderWriter;
+import csulb.cecs323.app.JournaledOrderWriter;
+import csulb.cecs323.app.OrderJournal;
+import csulb.cecs323.app.OrderRequest;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Orders per second from many concurrent clerks: GroupCommitOrderWriter, where a clerk waits
+ * for the database commit, against JournaledOrderWriter, where a clerk only waits for the
+ * journal's fsync.  The journaled orders are applied to the database in the background, and
+ * tearDown waits for that, so a trial takes longer than its measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(16)
+@Fork(1)
+public class OrderJournalBenchmark {
+    static final int CATALOG_SIZE = 1000;
+    static final int CUSTOMER_COUNT = 1000;
+
+    BenchmarkDatabase database;
+    Path journalDirectory;
+    OrderJournal journal;
+    JournaledOrderWriter journaled;
+    GroupCommitOrderWriter groupCommit;
+    long firstCustomerId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, CATALOG_SIZE).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), Integer.MAX_VALUE)));
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < CUSTOMER_COUNT; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+        firstCustomerId = customers.get(0).getCustomer_id();
+        journalDirectory = Files.createTempDirectory("customer-orders-journal");
+        journal = OrderJournal.open(journalDirectory);
+        journaled = new JournaledOrderWriter(database.getFactory(), journal);
+        groupCommit = new GroupCommitOrderWriter(database.getFactory());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journaled.close();
+        journal.close();
+        groupCommit.close();
+        database.close();
+        delete(journalDirectory);
+    }
+
+    @Benchmark
+    public Orders groupCommit() {
+        return groupCommit.submit(randomOrder()).join();
+    }
+
+    @Benchmark
+    public Long journaled() {
+        return journaled.submit(randomOrder()).join();
+    }
+
+    private OrderRequest randomOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(CATALOG_SIZE);
+        return new OrderRequest(firstCustomerId + random.nextInt(CUSTOMER_COUNT), "Bench", Arrays.asList(
+                new OrderRequest.Line("UPC" + first, 1),
+                new OrderRequest.Line("UPC" + (first + 1) % CATALOG_SIZE, 1)));
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
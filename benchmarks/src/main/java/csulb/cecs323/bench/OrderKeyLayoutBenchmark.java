@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The old order key against the new one, in plain JDBC so that only the table layout differs.
+ * "composite" is Orders keyed by (customer_id, order_date), with both columns migrating into
+ * every order line; "surrogate" is Orders keyed by a BIGINT order_id, with (customer_id,
+ * order_date) kept unique.  Each layout gets tables of its own, filled with orderCount orders
+ * of linesPerOrder lines each.
+ * <ul>
+ *     <li>insertOrder: one order and its lines in one transaction.  Order ids come from a
+ *     counter, as they would from an ID_BLOCKS block.</li>
+ *     <li>customerJoin: one customer's order lines, joined to their orders through the key.</li>
+ *     <li>fullJoin: every order line joined to its order, which walks the whole key index.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class OrderKeyLayoutBenchmark {
+    @Param({"composite", "surrogate"})
+    public String layout;
+
+    @Param({"20000"})
+    public int orderCount;
+
+    @Param({"5"})
+    public int linesPerOrder;
+
+    @Param({"1000"})
+    public int customerCount;
+
+    private static final long EPOCH = Timestamp.valueOf("2021-01-01 00:00:00").getTime();
+
+    BenchmarkDatabase database;
+    Connection connection;
+    PreparedStatement insertOrder;
+    PreparedStatement insertLine;
+    PreparedStatement customerJoin;
+    PreparedStatement fullJoin;
+    long orders;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase();
+        connection = database.getConnection();
+        connection.setAutoCommit(false);
+        boolean composite = layout.equals("composite");
+        try (Statement statement = connection.createStatement()) {
+            if (composite) {
+                statement.executeUpdate("CREATE TABLE LAYOUT_ORDERS (CUSTOMER_ID BIGINT NOT NULL, " +
+                        "ORDER_DATE TIMESTAMP NOT NULL, SOLD_BY VARCHAR(128) NOT NULL, " +
+                        "PRIMARY KEY (CUSTOMER_ID, ORDER_DATE))");
+                statement.executeUpdate("CREATE TABLE LAYOUT_LINES (CUSTOMER_ID BIGINT NOT NULL, " +
+                        "ORDER_DATE TIMESTAMP NOT NULL, PRODUCT_UPC VARCHAR(30) NOT NULL, " +
+                        "QUANTITY INTEGER NOT NULL, UNIT_SALE_PRICE DOUBLE NOT NULL, " +
+                        "PRIMARY KEY (CUSTOMER_ID, ORDER_DATE, PRODUCT_UPC), " +
+                        "FOREIGN KEY (CUSTOMER_ID, ORDER_DATE) REFERENCES LAYOUT_ORDERS (CUSTOMER_ID, ORDER_DATE))");
+            } else {
+                statement.executeUpdate("CREATE TABLE LAYOUT_ORDERS (ORDER_ID BIGINT NOT NULL PRIMARY KEY, " +
+                        "CUSTOMER_ID BIGINT NOT NULL, ORDER_DATE TIMESTAMP NOT NULL, SOLD_BY VARCHAR(128) NOT NULL, " +
+                        "UNIQUE (CUSTOMER_ID, ORDER_DATE))");
+                statement.executeUpdate("CREATE TABLE LAYOUT_LINES (ORDER_ID BIGINT NOT NULL, " +
+                        "PRODUCT_UPC VARCHAR(30) NOT NULL, QUANTITY INTEGER NOT NULL, " +
+                        "UNIT_SALE_PRICE DOUBLE NOT NULL, PRIMARY KEY (ORDER_ID, PRODUCT_UPC), " +
+                        "FOREIGN KEY (ORDER_ID) REFERENCES LAYOUT_ORDERS (ORDER_ID))");
+            }
+        }
+        if (composite) {
+            insertOrder = connection.prepareStatement(
+                    "INSERT INTO LAYOUT_ORDERS (CUSTOMER_ID, ORDER_DATE, SOLD_BY) VALUES (?, ?, ?)");
+            insertLine = connection.prepareStatement("INSERT INTO LAYOUT_LINES " +
+                    "(CUSTOMER_ID, ORDER_DATE, PRODUCT_UPC, QUANTITY, UNIT_SALE_PRICE) VALUES (?, ?, ?, ?, ?)");
+            customerJoin = connection.prepareStatement("SELECT SUM(l.QUANTITY * l.UNIT_SALE_PRICE) " +
+                    "FROM LAYOUT_ORDERS o JOIN LAYOUT_LINES l " +
+                    "ON l.CUSTOMER_ID = o.CUSTOMER_ID AND l.ORDER_DATE = o.ORDER_DATE " +
+                    "WHERE o.CUSTOMER_ID = ?");
+            fullJoin = connection.prepareStatement("SELECT COUNT(*) " +
+                    "FROM LAYOUT_ORDERS o JOIN LAYOUT_LINES l " +
+                    "ON l.CUSTOMER_ID = o.CUSTOMER_ID AND l.ORDER_DATE = o.ORDER_DATE");
+        } else {
+            insertOrder = connection.prepareStatement(
+                    "INSERT INTO LAYOUT_ORDERS (ORDER_ID, CUSTOMER_ID, ORDER_DATE, SOLD_BY) VALUES (?, ?, ?, ?)");
+            insertLine = connection.prepareStatement("INSERT INTO LAYOUT_LINES " +
+                    "(ORDER_ID, PRODUCT_UPC, QUANTITY, UNIT_SALE_PRICE) VALUES (?, ?, ?, ?)");
+            customerJoin = connection.prepareStatement("SELECT SUM(l.QUANTITY * l.UNIT_SALE_PRICE) " +
+                    "FROM LAYOUT_ORDERS o JOIN LAYOUT_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+                    "WHERE o.CUSTOMER_ID = ?");
+            fullJoin = connection.prepareStatement("SELECT COUNT(*) " +
+                    "FROM LAYOUT_ORDERS o JOIN LAYOUT_LINES l ON l.ORDER_ID = o.ORDER_ID");
+        }
+        for (int i = 0; i < orderCount; i++) {
+            insertOrder();
+        }
+        try (Statement statement = connection.createStatement()) {
+            // Let Derby's optimizer see the real table sizes.
+            statement.execute("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS('APP', 'LAYOUT_ORDERS', NULL)");
+            statement.execute("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS('APP', 'LAYOUT_LINES', NULL)");
+        }
+        connection.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public long insertOrder() throws SQLException {
+        long orderId = ++orders;
+        long customerId = orderId % customerCount;
+        Timestamp orderDate = new Timestamp(EPOCH + orderId);
+        int column = 1;
+        if (layout.equals("composite")) {
+            insertOrder.setLong(column++, customerId);
+            insertOrder.setTimestamp(column++, orderDate);
+        } else {
+            insertOrder.setLong(column++, orderId);
+            insertOrder.setLong(column++, customerId);
+            insertOrder.setTimestamp(column++, orderDate);
+        }
+        insertOrder.setString(column, "Bench");
+        insertOrder.executeUpdate();
+        for (int line = 0; line < linesPerOrder; line++) {
+            column = 1;
+            if (layout.equals("composite")) {
+                insertLine.setLong(column++, customerId);
+                insertLine.setTimestamp(column++, orderDate);
+            } else {
+                insertLine.setLong(column++, orderId);
+            }
+            insertLine.setString(column++, "UPC" + line);
+            insertLine.setInt(column++, 1);
+            insertLine.setDouble(column, 9.99);
+            insertLine.addBatch();
+        }
+        insertLine.executeBatch();
+        connection.commit();
+        return orderId;
+    }
+
+    @Benchmark
+    public double customerJoin() throws SQLException {
+        customerJoin.setLong(1, ThreadLocalRandom.current().nextInt(customerCount));
+        try (ResultSet total = customerJoin.executeQuery()) {
+            total.next();
+            return total.getDouble(1);
+        } finally {
+            connection.commit();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long fullJoin() throws SQLException {
+        try (ResultSet count = fullJoin.executeQuery()) {
+            count.next();
+            return count.getLong(1);
+        } finally {
+            connection.commit();
+        }
+    }
+}
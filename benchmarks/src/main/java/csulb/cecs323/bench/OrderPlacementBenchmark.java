@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.OrderEntryService;
+import csulb.cecs323.app.OrderRequest;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * End-to-end order placement: look up the customer and products, reserve stock, and commit one
+ * Orders row with lineCount Order_lines rows, all through OrderEntryService.placeOrder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class OrderPlacementBenchmark {
+    @Param({"1", "10", "50"})
+    public int lineCount;
+
+    @Param({"1000"})
+    public int catalogSize;
+
+    @Param({"1000"})
+    public int customerCount;
+
+    BenchmarkDatabase database;
+    EntityManager manager;
+    long firstCustomerId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, catalogSize).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), Integer.MAX_VALUE)));
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < customerCount; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+        firstCustomerId = customers.get(0).getCustomer_id();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Orders placeOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<OrderRequest.Line> lines = new ArrayList<>(lineCount);
+        // Consecutive UPCs from a random starting point, so that no UPC repeats in one order.
+        int first = random.nextInt(catalogSize);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new OrderRequest.Line("UPC" + (first + i) % catalogSize, 1));
+        }
+        long customerId = firstCustomerId + random.nextInt(customerCount);
+        return OrderEntryService.placeOrder(manager, new OrderRequest(customerId, "Bench", lines));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.ProductCatalog;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Looking products up by UPC: the ReturnProduct primary key query, EntityManager.find, the
+ * ProductCatalog, and ProductCatalog.getAll for a whole cart at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ProductLookupBenchmark {
+    @Param({"1000", "10000"})
+    public int catalogSize;
+
+    @Param({"10"})
+    public int cartSize;
+
+    BenchmarkDatabase database;
+    EntityManager manager;
+    ProductCatalog catalog;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, catalogSize).mapToObj(i ->
+                new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), 100)));
+        catalog = new ProductCatalog(manager, catalogSize, ProductCatalog.DEFAULT_TTL);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+        database.close();
+    }
+
+    private String randomUpc() {
+        return "UPC" + ThreadLocalRandom.current().nextInt(catalogSize);
+    }
+
+    @Benchmark
+    public List<Products> namedQuery() {
+        List<Products> found = manager.createNamedQuery("ReturnProduct", Products.class)
+                .setParameter(1, randomUpc()).getResultList();
+        manager.clear();
+        return found;
+    }
+
+    @Benchmark
+    public Products find() {
+        Products found = manager.find(Products.class, randomUpc());
+        manager.clear();
+        return found;
+    }
+
+    @Benchmark
+    public Products catalog() {
+        return catalog.get(randomUpc());
+    }
+
+    @Benchmark
+    public Map<String, Products> cartUncached() {
+        List<String> cart = new ArrayList<>(cartSize);
+        for (int i = 0; i < cartSize; i++) cart.add(randomUpc());
+        catalog.invalidateAll();
+        return catalog.getAll(cart);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.CustomerSummary;
+import csulb.cecs323.app.Listings;
+import csulb.cecs323.app.ProductSummary;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Products;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Listing every product and customer as entities versus as ProductSummary and CustomerSummary
+ * rows, streamed and in keyset pages.  Run with -prof gc to see the bytes allocated per listing
+ * (gc.alloc.rate.norm) as well as the time.  The entities are read-only and, after the first
+ * listing, come from the shared cache, so this is the best case for them.  Most of what either
+ * way allocates is Derby reading the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+    @Param({"10000", "50000"})
+    public int rows;
+
+    @Param({"500"})
+    public int fetchSize;
+
+    BenchmarkDatabase database;
+    EntityManager manager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        manager = database.createEntityManager();
+        new BulkLoader(manager).load(IntStream.range(0, rows).mapToObj(i ->
+                new Products(String.format("UPC%08d", i), "Product " + i, "Mfgr", "M" + i, Money.ofCents(999), 100)));
+        new BulkLoader(manager).load(IntStream.range(0, rows).mapToObj(i ->
+                new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public void streamProducts(Blackhole hole) {
+        try (Stream<Products> products = Listings.streamProducts(manager, fetchSize)) {
+            products.forEach(hole::consume);
+        }
+    }
+
+    @Benchmark
+    public void streamProductSummaries(Blackhole hole) {
+        try (Stream<ProductSummary> products = Listings.streamProductSummaries(manager, fetchSize)) {
+            products.forEach(hole::consume);
+        }
+    }
+
+    @Benchmark
+    public void streamCustomers(Blackhole hole) {
+        try (Stream<Customers> customers = Listings.streamCustomers(manager, fetchSize)) {
+            customers.forEach(hole::consume);
+        }
+    }
+
+    @Benchmark
+    public void streamCustomerSummaries(Blackhole hole) {
+        try (Stream<CustomerSummary> customers = Listings.streamCustomerSummaries(manager, fetchSize)) {
+            customers.forEach(hole::consume);
+        }
+    }
+
+    @Benchmark
+    public void pageProducts(Blackhole hole) {
+        String after = "";
+        while (true) {
+            List<Products> page = Listings.productsPage(manager, after, fetchSize);
+            page.forEach(hole::consume);
+            if (page.size() < fetchSize) break;
+            after = page.get(page.size() - 1).getUPC();
+        }
+    }
+
+    @Benchmark
+    public void pageProductSummaries(Blackhole hole) {
+        String after = "";
+        while (true) {
+            List<ProductSummary> page = Listings.productSummariesPage(manager, after, fetchSize);
+            page.forEach(hole::consume);
+            if (page.size() < fetchSize) break;
+            after = page.get(page.size() - 1).getUPC();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.bench;
+
+import csulb.cecs323.app.BulkLoader;
+import csulb.cecs323.app.OrderBuilder;
+import csulb.cecs323.app.SalesReports;
+import csulb.cecs323.app.SalesRollups;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Product_sales;
+import csulb.cecs323.model.Products;
+import csulb.cecs323.model.Salesperson_sales;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * All-time sales per product or per salesperson over orderCount orders of linesPerOrder lines:
+ * read from the SalesRollups tables, versus added up from the order lines by SalesReports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SalesRollupBenchmark {
+    @Param({"PRODUCT", "SALESPERSON"})
+    public SalesReports.Dimension dimension;
+
+    @Param({"20000"})
+    public int orderCount;
+
+    @Param({"5"})
+    public int linesPerOrder;
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2021, 1, 1, 0, 0);
+    private static final LocalDateTime TO = FROM.plusYears(1);
+
+    BenchmarkDatabase database;
+    SalesReports reports;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        EntityManager manager = database.createEntityManager();
+        List<Products> products = new ArrayList<>();
+        IntStream.range(0, 1000).forEach(i ->
+                products.add(new Products("UPC" + i, "Product " + i, "Mfgr", "M" + i, Money.ofCents(100 + i), 100)));
+        new BulkLoader(manager).load(products);
+        List<Customers> customers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            customers.add(new Customers("Last" + i, "First", "1 Street", "90840", "555-" + i));
+        }
+        new BulkLoader(manager).load(customers);
+
+        Random random = new Random(42);
+        long spacing = Duration.between(FROM, TO).getSeconds() / orderCount;
+        manager.getTransaction().begin();
+        for (int i = 0; i < orderCount; i++) {
+            OrderBuilder order = new OrderBuilder(customers.get(random.nextInt(customers.size())),
+                    FROM.plusSeconds(i * spacing), "Clerk" + random.nextInt(20));
+            int first = random.nextInt(products.size());
+            for (int line = 0; line < linesPerOrder; line++) {
+                order.add(products.get((first + line) % products.size()), 1 + random.nextInt(5));
+            }
+            order.persist(manager);
+            if (i % 1000 == 999) {
+                manager.getTransaction().commit();
+                manager.clear();
+                manager.getTransaction().begin();
+            }
+        }
+        manager.getTransaction().commit();
+        manager.clear();
+        new SalesRollups(database.getFactory()).rebuild();
+        reports = new SalesReports(database.getFactory());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<?> fromRollups() {
+        EntityManager manager = database.getFactory().createEntityManager();
+        try {
+            return dimension == SalesReports.Dimension.PRODUCT
+                    ? manager.createNamedQuery("ReturnProductSales", Product_sales.class).getResultList()
+                    : manager.createNamedQuery("ReturnSalespersonSales", Salesperson_sales.class).getResultList();
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Benchmark
+    public List<?> fromOrderLines() {
+        return reports.report(dimension, FROM, TO);
+    }
+}
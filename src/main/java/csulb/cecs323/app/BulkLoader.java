@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Loads large numbers of entities (Products, Customers, Orders, Order_lines) into the database
+ * without holding all of them in the persistence context at once.
+ * <p>
+ * createEntity in CustomerOrders is fine for a handful of rows, but every entity it persists stays
+ * managed until the EntityManager goes away.  The BulkLoader instead flushes and clears the
+ * EntityManager every chunkSize rows, so heap use depends on the chunk size and not on the size
+ * of the feed.  Combined with the JDBC batch writing and parameter binding settings in
+ * persistence.xml, each chunk goes to the database as a handful of batched INSERT statements.
+ * </p>
+ * <p>
+ * If the caller has not already started a transaction, the loader commits each chunk on its own.
+ * That way the parents loaded in one call (say, Customers) are in the shared cache and can be
+ * referenced by the children loaded in a later call (say, Orders).  Load parents before children.
+ * </p>
+ */
+public class BulkLoader {
+    /** The number of rows persisted between flushes when no chunk size is given. */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(BulkLoader.class.getName());
+
+    /** The EntityManager that all of the rows go through. */
+    private final EntityManager entityManager;
+
+    /** How many rows to persist before flushing and clearing the persistence context. */
+    private final int chunkSize;
+
+    /**
+     * Build a loader that uses the default chunk size.
+     *
+     * @param manager The EntityManager to persist through.
+     */
+    public BulkLoader(EntityManager manager) {
+        this(manager, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Build a loader with a specific chunk size.
+     *
+     * @param manager   The EntityManager to persist through.
+     * @param chunkSize The number of rows to persist between flushes.  Should usually match
+     *                  eclipselink.jdbc.batch-writing.size (or a multiple of it).
+     */
+    public BulkLoader(EntityManager manager, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1, was " + chunkSize);
+        }
+        this.entityManager = manager;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Persist every entity in the list.
+     *
+     * @param entities The entities to persist.
+     * @return How many rows were written and how long it took.
+     */
+    public <E> Result load(List<E> entities) {
+        return load(entities.stream());
+    }
+
+    /**
+     * Persist every entity in the stream.  The stream is consumed lazily, so it can be backed by
+     * a file reader or a generator that never materializes the whole feed.
+     *
+     * @param entities The entities to persist.
+     * @return How many rows were written and how long it took.
+     */
+    public <E> Result load(Stream<E> entities) {
+        EntityTransaction tx = this.entityManager.getTransaction();
+        // Only manage the transaction ourselves if the caller has not already started one.
+        boolean ownTransaction = !tx.isActive();
+        long start = System.nanoTime();
+        long rows = 0;
+        try {
+            if (ownTransaction) tx.begin();
+            Iterator<E> it = entities.iterator();
+            while (it.hasNext()) {
+                this.entityManager.persist(it.next());
+                if (++rows % this.chunkSize == 0) {
+                    endChunk(tx, ownTransaction);
+                }
+            }
+            this.entityManager.flush();
+            if (ownTransaction) tx.commit();
+            this.entityManager.clear();
+        } catch (RuntimeException e) {
+            if (ownTransaction && tx.isActive()) tx.rollback();
+            throw e;
+        }
+        Result result = new Result(rows, System.nanoTime() - start);
+        if (Metrics.isEnabled()) {
+            Metrics.getRegistry().recordNanos(Metrics.BULK_LOAD, result.getElapsedNanos());
+            Metrics.count(Metrics.ROWS_WRITTEN, rows);
+        }
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Bulk loaded " + result);
+        }
+        return result;
+    } // End of load member method
+
+    /**
+     * Push the current chunk to the database and empty the persistence context.
+     */
+    private void endChunk(EntityTransaction tx, boolean ownTransaction) {
+        this.entityManager.flush();
+        if (ownTransaction) {
+            long committing = Metrics.start();
+            tx.commit();
+            Metrics.stop(Metrics.TX_COMMIT, committing);
+            this.entityManager.clear();
+            tx.begin();
+        } else {
+            this.entityManager.clear();
+        }
+    }
+
+    /** The outcome of a single bulk load. */
+    public static class Result {
+        private final long rows;
+        private final long elapsedNanos;
+
+        public Result(long rows, long elapsedNanos) {
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** @return The throughput of the load, in rows per second. */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows in " + (elapsedNanos / 1_000_000) + " ms (" +
+                    Math.round(getRowsPerSecond()) + " rows/sec)";
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.CustomerChanges;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.ProductChanges;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the shared caches of several JVMs that use the same database in step: when a product
+ * or customer changes in one of them, the others throw their cached copy away.
+ * <p>
+ * Each JVM listens for UDP datagrams on the {@value #LISTEN} address and sends to every
+ * {@value #PEERS} address.  A message is just the keys that changed, one per line: P and a UPC,
+ * or C and a customer_id.  The keys come from ProductChanges (every product updated through JPA
+ * or by InventoryReservations) and CustomerChanges.  They are collected while the transaction
+ * that changed them is open and sent once it commits, so no other JVM can read the old row back
+ * into its cache after being told to forget it.  Changes that are rolled back are not sent.
+ * </p>
+ * <p>
+ * On receipt, the entry is evicted from this JVM's shared cache, and a product is also reported
+ * to this JVM's ProductChanges listeners, so that ProductCatalogs forget it too.  (CustomerDirectory
+ * indexes only follow changes made in their own JVM.)  Datagrams are only accepted from the
+ * listed peers.  One can be lost; the cache expiry on Products and Customers bounds how long a
+ * copy can then stay stale.  Stock can never be oversold either way, since InventoryReservations
+ * checks it in the database.
+ * </p>
+ * <p>
+ * SessionTuningCustomizer installs a coordinator when {@value #LISTEN} is set, for example
+ * </p>
+ * <pre>
+ *     -Dcsulb.cecs323.cache.coordination.listen=127.0.0.1:7801
+ *     -Dcsulb.cecs323.cache.coordination.peers=127.0.0.1:7802
+ * </pre>
+ */
+public class CacheCoordinator extends SessionEventAdapter implements CustomerChanges.Listener {
+    /** The host:port this JVM receives invalidations on.  Coordination is off if it is not set. */
+    public static final String LISTEN = "csulb.cecs323.cache.coordination.listen";
+
+    /** The host:port of every other JVM, separated by commas. */
+    public static final String PEERS = "csulb.cecs323.cache.coordination.peers";
+
+    /** Keeps a stray datagram from being mistaken for one of ours. */
+    private static final String HEADER = "CustomerOrders cache 1\n";
+
+    /** Stay under the usual Ethernet MTU, so that a message is never fragmented. */
+    private static final int MAX_DATAGRAM = 1400;
+
+    private static final Logger LOGGER = Logger.getLogger(CacheCoordinator.class.getName());
+
+    private final InetSocketAddress listen;
+    private final List<InetSocketAddress> peers;
+
+    /** The keys changed by the transaction open on each thread, or null if none is open. */
+    private final ThreadLocal<Set<String>> pending = new ThreadLocal<>();
+
+    private volatile Session session;
+    private volatile DatagramSocket socket;
+    private Thread receiver;
+
+    private final Consumer<String> productChanges = upc -> changed("P " + upc);
+
+    /**
+     * @param listen The address to receive on.
+     * @param peers  The addresses of the other JVMs.
+     */
+    public CacheCoordinator(InetSocketAddress listen, List<InetSocketAddress> peers) {
+        this.listen = listen;
+        this.peers = new ArrayList<>(peers);
+    }
+
+    /**
+     * Add a coordinator to a session if {@value #LISTEN} is set, as a persistence unit property
+     * or a system property.  It starts when the session logs in and stops when it logs out.
+     */
+    public static void install(Session session) {
+        String listen = property(session, LISTEN);
+        if (listen == null || listen.trim().isEmpty()) return;
+        List<InetSocketAddress> peers = new ArrayList<>();
+        String list = property(session, PEERS);
+        if (list != null) {
+            for (String peer : list.split(",")) {
+                if (!peer.trim().isEmpty()) peers.add(address(PEERS, peer));
+            }
+        }
+        session.getEventManager().addListener(new CacheCoordinator(address(LISTEN, listen), peers));
+    }
+
+    private static String property(Session session, String name) {
+        Object value = session.getProperty(name);
+        return value != null ? value.toString() : System.getProperty(name);
+    }
+
+    /** Parse host:port. */
+    static InetSocketAddress address(String property, String value) {
+        String trimmed = value.trim();
+        int colon = trimmed.lastIndexOf(':');
+        try {
+            if (colon < 1) throw new NumberFormatException("no port");
+            return new InetSocketAddress(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(property + " must be host:port, was " + value, e);
+        }
+    }
+
+    @Override
+    public void postLogin(SessionEvent event) {
+        session = event.getSession();
+        try {
+            socket = new DatagramSocket(listen);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen for cache invalidations on " + listen, e);
+        }
+        receiver = new Thread(this::receive, "cache-coordination");
+        receiver.setDaemon(true);
+        receiver.start();
+        ProductChanges.addListener(productChanges);
+        CustomerChanges.addListener(this);
+    }
+
+    @Override
+    public void preLogout(SessionEvent event) {
+        ProductChanges.removeListener(productChanges);
+        CustomerChanges.removeListener(this);
+        DatagramSocket closing = socket;
+        if (closing != null) closing.close();
+        if (receiver != null) {
+            try {
+                receiver.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Transactions, as seen by the thread running them.
+
+    @Override
+    public void postBeginTransaction(SessionEvent event) {
+        if (pending.get() == null) pending.set(new LinkedHashSet<>());
+    }
+
+    @Override
+    public void postCommitTransaction(SessionEvent event) {
+        Set<String> keys = pending.get();
+        pending.remove();
+        if (keys != null && !keys.isEmpty()) send(keys);
+    }
+
+    @Override
+    public void postRollbackTransaction(SessionEvent event) {
+        pending.remove();
+    }
+
+    // Changes made in this JVM.
+
+    @Override
+    public void saved(Customers customer) {
+        changed("C " + customer.getCustomer_id());
+    }
+
+    @Override
+    public void removed(Customers customer) {
+        changed("C " + customer.getCustomer_id());
+    }
+
+    private void changed(String key) {
+        // Changes we were told about by a peer are not passed on again.
+        if (Thread.currentThread() == receiver) return;
+        Set<String> keys = pending.get();
+        if (keys != null) {
+            keys.add(key);
+        } else {
+            Set<String> now = new LinkedHashSet<>();
+            now.add(key);
+            send(now);
+        }
+    }
+
+    /** Send the keys to every peer, in as few datagrams as they fit in. */
+    private void send(Set<String> keys) {
+        DatagramSocket sending = socket;
+        if (sending == null || sending.isClosed() || peers.isEmpty()) return;
+        StringBuilder message = new StringBuilder(HEADER);
+        for (String key : keys) {
+            if (message.length() + key.length() + 1 > MAX_DATAGRAM && message.length() > HEADER.length()) {
+                send(sending, message);
+                message.setLength(HEADER.length());
+            }
+            message.append(key).append('\n');
+        }
+        send(sending, message);
+    }
+
+    private void send(DatagramSocket sending, StringBuilder message) {
+        byte[] bytes = message.toString().getBytes(StandardCharsets.UTF_8);
+        for (InetSocketAddress peer : peers) {
+            try {
+                sending.send(new DatagramPacket(bytes, bytes.length, peer));
+            } catch (IOException e) {
+                // The peer's copy expires in the end; nothing here is worth failing a commit over.
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.log(Level.WARNING, "Could not send cache invalidations to " + peer, e);
+                }
+            }
+        }
+    }
+
+    /** The receiver thread: evict whatever the peers say has changed, until the socket closes. */
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM * 2];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (socket.isClosed()) return;
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.log(Level.WARNING, "Could not receive cache invalidations", e);
+                }
+                continue;
+            }
+            if (!isPeer(packet.getSocketAddress())) continue;
+            String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+            if (!message.startsWith(HEADER)) continue;
+            for (String key : message.substring(HEADER.length()).split("\n")) {
+                try {
+                    evict(key);
+                } catch (RuntimeException e) {
+                    if (LOGGER.isLoggable(Level.WARNING)) {
+                        LOGGER.log(Level.WARNING, "Could not evict " + key + " from the cache", e);
+                    }
+                }
+            }
+        }
+    } // End of receive method
+
+    private boolean isPeer(SocketAddress sender) {
+        for (InetSocketAddress peer : peers) {
+            if (peer.equals(sender)) return true;
+        }
+        return false;
+    }
+
+    private void evict(String key) {
+        if (key.startsWith("P ")) {
+            String upc = key.substring(2);
+            session.getIdentityMapAccessor().invalidateObject(upc, Products.class);
+            ProductChanges.changed(upc);
+        } else if (key.startsWith("C ")) {
+            session.getIdentityMapAccessor().invalidateObject(Long.valueOf(key.substring(2)), Customers.class);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Re-runs a unit of work that lost a race with another transaction: an optimistic lock failure
+ * on a @Version column, or a lock timeout or deadlock reported by the database.  Between attempts
+ * it sleeps for an exponentially growing, randomly jittered interval so that the threads that
+ * collided do not simply collide again.
+ * <p>
+ * The unit of work must begin and end its own transaction, since a transaction that failed this
+ * way has to be rolled back and started over.  Any other exception is passed straight through.
+ * </p>
+ */
+public class ContentionRetry {
+    /** The retry policy used by the order entry code. */
+    public static final ContentionRetry DEFAULT = new ContentionRetry(8, 2);
+
+    /** How many times to try, including the first attempt. */
+    private final int maxAttempts;
+
+    /** The longest first backoff, in milliseconds.  Doubles with every attempt. */
+    private final long baseBackoffMillis;
+
+    public ContentionRetry(int maxAttempts, long baseBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /**
+     * Run the work, retrying it while it fails because of contention.
+     *
+     * @param work The unit of work, including its own transaction.
+     * @return Whatever the work returned on the attempt that succeeded.
+     */
+    public <T> T run(Supplier<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.get();
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isContention(e)) throw e;
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = baseBackoffMillis << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    /**
+     * Decide whether a failure was caused by another transaction getting in the way, in which
+     * case trying again is likely to work.
+     */
+    static boolean isContention(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof OptimisticLockException || t instanceof PessimisticLockException ||
+                    t instanceof LockTimeoutException) {
+                return true;
+            }
+            // SQLState class 40 is transaction rollback: deadlocks, lock timeouts and
+            // serialization failures, in Derby and MySQL alike.
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("40")) return true;
+            }
+            // EclipseLink reports optimistic lock failures with its own exception type.
+            if (t instanceof org.eclipse.persistence.exceptions.OptimisticLockException) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.CustomerChanges;
+import csulb.cecs323.model.Customers;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Finds customers by the start of their last name, or by exact phone number or zip code, so that
+ * a clerk does not have to scroll through every customer to find the right customer_id.
+ * <p>
+ * Out of the box every search is a query against the secondary indexes declared on Customers.
+ * Calling load() additionally builds in-memory indexes (a sorted map for last name prefixes and
+ * hash maps for phone and zip), after which searches never touch the database.  The in-memory
+ * indexes are kept current through CustomerChanges whenever a customer is inserted, updated or
+ * deleted through JPA in this JVM, once the transaction commits.  They hold copies of the
+ * customers rather than entities, so the customers they return are not managed by any
+ * EntityManager, and should not be changed: find the customer to change it.
+ * </p>
+ */
+public class CustomerDirectory implements CustomerChanges.Listener, AutoCloseable {
+    /** Where customers are read from. */
+    private final EntityManager entityManager;
+
+    /** Whether load() has been called, so the in-memory indexes can be trusted. */
+    private boolean loaded;
+
+    /** What we indexed each customer under, so that an update can find the old entries. */
+    private final Map<Long, Entry> byId = new HashMap<>();
+    private final TreeMap<String, Set<Long>> byLastName = new TreeMap<>();
+    private final Map<String, Set<Long>> byPhone = new HashMap<>();
+    private final Map<String, Set<Long>> byZip = new HashMap<>();
+
+    public CustomerDirectory(EntityManager manager) {
+        this.entityManager = manager;
+        CustomerChanges.addListener(this);
+    }
+
+    /**
+     * Read every customer and build the in-memory indexes.  Customers are streamed, so only the
+     * indexes themselves (not a list of all customers on top of them) need to fit in memory.
+     */
+    public synchronized void load() {
+        clear();
+        try (Stream<Customers> customers = Listings.streamCustomers(entityManager, Listings.DEFAULT_FETCH_SIZE)) {
+            customers.forEach(this::index);
+        }
+        loaded = true;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Customers whose last name starts with the given text (case sensitive), in last name order.
+     *
+     * @param prefix The start of the last name.
+     * @param limit  The most customers to return.
+     */
+    public synchronized List<Customers> findByLastNamePrefix(String prefix, int limit) {
+        if (!loaded) {
+            String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            return entityManager.createNamedQuery("ReturnCustomersByLastName", Customers.class)
+                    .setParameter("prefix", pattern)
+                    .setMaxResults(limit)
+                    .setHint(QueryHints.READ_ONLY, HintValues.TRUE)
+                    .getResultList();
+        }
+        List<Customers> found = new ArrayList<>();
+        // Every key from prefix up to (not including) the first string past all of its extensions.
+        for (Set<Long> ids : byLastName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            for (Long id : ids) {
+                if (found.size() == limit) return found;
+                found.add(byId.get(id).customer);
+            }
+        }
+        return found;
+    }
+
+    /** Every customer with exactly this phone number. */
+    public synchronized List<Customers> findByPhone(String phone) {
+        if (!loaded) return query("ReturnCustomersByPhone", "phone", phone);
+        return lookup(byPhone, phone);
+    }
+
+    /** Every customer with exactly this zip code. */
+    public synchronized List<Customers> findByZip(String zip) {
+        if (!loaded) return query("ReturnCustomersByZip", "zip", zip);
+        return lookup(byZip, zip);
+    }
+
+    @Override
+    public synchronized void saved(Customers customer) {
+        if (!loaded) return;
+        unindex(customer.getCustomer_id());
+        index(customer);
+    }
+
+    @Override
+    public synchronized void removed(Customers customer) {
+        if (!loaded) return;
+        unindex(customer.getCustomer_id());
+    }
+
+    /** Stop listening for changes and drop the in-memory indexes. */
+    @Override
+    public synchronized void close() {
+        CustomerChanges.removeListener(this);
+        clear();
+        loaded = false;
+    }
+
+    private List<Customers> query(String name, String parameter, String value) {
+        return entityManager.createNamedQuery(name, Customers.class)
+                .setParameter(parameter, value)
+                .setHint(QueryHints.READ_ONLY, HintValues.TRUE)
+                .getResultList();
+    }
+
+    private List<Customers> lookup(Map<String, Set<Long>> index, String key) {
+        Collection<Long> ids = index.getOrDefault(key, Collections.emptySet());
+        List<Customers> found = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            found.add(byId.get(id).customer);
+        }
+        return found;
+    }
+
+    private void index(Customers customer) {
+        Entry entry = new Entry(customer);
+        byId.put(entry.id, entry);
+        add(byLastName, entry.lastName, entry.id);
+        add(byPhone, entry.phone, entry.id);
+        add(byZip, entry.zip, entry.id);
+    }
+
+    private void unindex(long id) {
+        Entry old = byId.remove(id);
+        if (old == null) return;
+        remove(byLastName, old.lastName, id);
+        remove(byPhone, old.phone, id);
+        remove(byZip, old.zip, id);
+    }
+
+    private static void add(Map<String, Set<Long>> index, String key, long id) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+    }
+
+    private static void remove(Map<String, Set<Long>> index, String key, long id) {
+        Set<Long> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) index.remove(key);
+    }
+
+    private void clear() {
+        byId.clear();
+        byLastName.clear();
+        byPhone.clear();
+        byZip.clear();
+    }
+
+    /** A copy of a customer, and the keys it was indexed under. */
+    private static class Entry {
+        final long id;
+        final String lastName;
+        final String phone;
+        final String zip;
+        final Customers customer;
+
+        Entry(Customers customer) {
+            this.id = customer.getCustomer_id();
+            this.lastName = customer.getLast_name();
+            this.phone = customer.getPhone();
+            this.zip = customer.getZip();
+            this.customer = new Customers(lastName, customer.getFirst_name(), customer.getStreet(), zip, phone);
+            this.customer.setCustomer_id(id);
+        }
+    }
+}
@@ -14,21 +14,24 @@ package csulb.cecs323.app;
 
 // Import all of the entity classes that we have written for this application.
 
+import csulb.cecs323.metrics.Metrics;
 import csulb.cecs323.model.*;
 import org.eclipse.persistence.exceptions.DatabaseException;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
-import javax.persistence.Persistence;
-import java.text.DecimalFormat;
+import javax.persistence.PersistenceException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * A simple application to demonstrate how to persist an object in JPA.
@@ -65,6 +68,12 @@ public class CustomerOrders {
      */
     private static final Logger LOGGER = Logger.getLogger(CustomerOrders.class.getName());
 
+    /**
+     * All of the product lookups in the prompts go through this cache, so that retyping a UPC
+     * does not mean reading the whole PRODUCTS table again.
+     */
+    private final ProductCatalog catalog;
+
     /**
      * The constructor for the CustomerOrders class.  All that it does is stash the provided EntityManager
      * for use later in the application.
@@ -73,16 +82,20 @@ public class CustomerOrders {
      */
     public CustomerOrders(EntityManager manager) {
         this.entityManager = manager;
+        this.catalog = new ProductCatalog(manager);
     }
 
     public static void main(String[] args) {
         LOGGER.setLevel(Level.OFF);
+        // Run with -Dcsulb.cecs323.metrics=true to watch timings in JConsole.
+        if (Metrics.isEnabled()) Metrics.registerMBean();
         LOGGER.fine("Creating EntityManagerFactory and EntityManager");
-        EntityManagerFactory factory = Persistence.createEntityManagerFactory("CustomerOrders");
+        // The connection settings come from the persistence profile (derby-embedded unless
+        // -Dcsulb.cecs323.profile says otherwise), layered over persistence.xml.
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
         EntityManager manager = factory.createEntityManager();
         // Create an instance of CustomerOrders and store our new EntityManager as an instance variable.
         CustomerOrders customerOrders = new CustomerOrders(manager);
-        final DecimalFormat df = new DecimalFormat("0.00");
 
 
         // Any changes to the database need to be done within a transaction.
@@ -92,25 +105,24 @@ public class CustomerOrders {
         EntityTransaction tx = manager.getTransaction();
 
         tx.begin();
-        List<Orders> orders = new ArrayList<Orders>();
-        List<Order_lines> order_lines = new ArrayList<Order_lines>();
         // List of Products that I want to persist.  I could just as easily done this with the seed-data.sql
         List<Products> products = new ArrayList<Products>();
         List<Customers> customers = new ArrayList<Customers>();
         // Load up my List with the Entities that I want to persist.  Note, this does not put them
         // into the database.
-        products.add(new Products("123", "16 oz. hickory hammer", "Stanely Tools", "1", 9.97, 50));
-        products.add(new Products("124", "19 oz. Smooth Face Fiberglass", "Milwaukee", "2", 25.88, 10));
-        products.add(new Products("125", "20 oz. Fiberglass Rip Claw Hammer", "Crescent", "3", 19.97, 5));
-        products.add(new Products("126", "3 lbs Fiberglass Drilling Hammer", "Milwaukee", "4", 18.97, 10));
-        // Create the list of owners in the database.
-        customerOrders.createEntity(products);
+        products.add(new Products("123", "16 oz. hickory hammer", "Stanely Tools", "1", Money.parse("9.97"), 50));
+        products.add(new Products("124", "19 oz. Smooth Face Fiberglass", "Milwaukee", "2", Money.parse("25.88"), 10));
+        products.add(new Products("125", "20 oz. Fiberglass Rip Claw Hammer", "Crescent", "3", Money.parse("19.97"), 5));
+        products.add(new Products("126", "3 lbs Fiberglass Drilling Hammer", "Milwaukee", "4", Money.parse("18.97"), 10));
+        // Create the list of owners in the database.  Only seed empty tables, so that a database
+        // kept from an earlier run (StartupMode.VALIDATE) does not get the same rows twice.
+        if (customerOrders.isEmpty("CountProducts")) customerOrders.createEntity(products);
 
         customers.add(new Customers("Smith", "Bob", "123 Street", "12345", "012-345-6789"));
         customers.add(new Customers("Akhras", "Walid", "124 Street", "90621", "741-532-1111"));
         customers.add(new Customers("West", "Kanye", "125 Street", "90742", "321-344-6789"));
         customers.add(new Customers("Last", "First", "126 Street", "12345", "012-532-6789"));
-        customerOrders.createEntity(customers);
+        if (customerOrders.isEmpty("CountCustomers")) customerOrders.createEntity(customers);
 
         // Commit the changes so that the new data persists and is visible to other users.
       tx.commit();
@@ -120,14 +132,14 @@ public class CustomerOrders {
 
         String identity = customerOrders.getSalesman();
 
-        Customers cust = customerOrders.promptCustomers(customers);
-        Orders custOrder = new Orders(cust, customerOrders.getLocalDateTime(), identity);
+        Customers cust = customerOrders.promptCustomers();
+        // The whole cart becomes one order; buying the same product twice adds to its line.
+        OrderBuilder custOrder = new OrderBuilder(cust, customerOrders.getLocalDateTime(), identity);
 
         boolean continueShopping = true;
         Scanner i = new Scanner(System.in);
-        double totalPrice = 0;
         while (continueShopping) {
-            Products prod = customerOrders.promptProducts(products);
+            Products prod = customerOrders.promptProducts();
             System.out.println(prod);
 
             System.out.println("Please enter the quantity of this product you would like to purchase. ");
@@ -138,18 +150,20 @@ public class CustomerOrders {
                 quantity = i.nextInt();
             }
 
-            orders.add(custOrder);
-            double price = prod.getUnit_list_price() * quantity;
+            Money price = prod.getUnit_list_price().times(quantity);
             System.out.println("Total price: " + price);
             System.out.println("Add product? (Y/N)");
             String res = i.nextLine();
             res = customerOrders.validateResponse(i, res);
 
             if (res.equals("Y")) {
-                order_lines.add(new Order_lines(custOrder, prod, quantity, price));
-                System.out.println("Product Added");
-                totalPrice += price;
-                prod.setUnits_in_stock(prod.getUnits_in_stock() - quantity);
+                try {
+                    custOrder.add(prod, quantity);
+                    System.out.println("Product Added");
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    System.out.println("Product not added.");
+                }
             } else { System.out.println("Order successfully aborted. You may add more products, or exit. "); }
 
             System.out.println("Add another product to the order? (Y/N)");
@@ -163,13 +177,42 @@ public class CustomerOrders {
             System.out.println("Are you sure you want to purchase this order? (Y/N)");
             String abortAns = i.nextLine();
             abortAns = customerOrders.validateResponse(in, abortAns);
-            if (abortAns.equals("Y")) {
-                System.out.println("Total price: " + df.format(totalPrice));
+            if (abortAns.equals("Y") && custOrder.isEmpty()) {
+                System.out.println("There are no products in this order.");
+                System.out.println("Order not created...");
+                abortOrder = true;
+            } else if (abortAns.equals("Y")) {
+                System.out.println("Total price: " + custOrder.getTotal());
                 System.out.println("Purchasing");
+                // Take the stock in the same transaction as the order, so that another clerk
+                // cannot sell the same units between our check and our commit.
+                Map<String, Integer> quantities = custOrder.getQuantities();
+                long placing = Metrics.start();
                 tx.begin();
-                customerOrders.createEntity(orders);
-                customerOrders.createEntity(order_lines);
-                tx.commit();
+                try {
+                    InventoryReservations.reserveAll(manager, quantities);
+                    custOrder.persist(manager);
+                    SalesRollups.record(manager, custOrder);
+                    long committing = Metrics.start();
+                    tx.commit();
+                    Metrics.stop(Metrics.TX_COMMIT, committing);
+                    Metrics.stop(Metrics.ORDER_PLACE, placing);
+                    Metrics.count(Metrics.ORDERS_PLACED, 1);
+                } catch (InsufficientStockException e) {
+                    Metrics.count(Metrics.ORDERS_FAILED, 1);
+                    System.out.println(e.getMessage());
+                    System.out.println("Order not created...");
+                } catch (PersistenceException e) {
+                    // The database turned the order down, or went away; either way nothing was saved.
+                    Metrics.count(Metrics.ORDERS_FAILED, 1);
+                    if (LOGGER.isLoggable(Level.WARNING)) {
+                        LOGGER.log(Level.WARNING, "Could not place the order", e);
+                    }
+                    System.out.println("The order could not be saved: " + e.getMessage());
+                    System.out.println("Order not created...");
+                } finally {
+                    if (tx.isActive()) tx.rollback();
+                }
                 abortOrder = true;
             } else {
                 System.out.println("Order not created...");
@@ -184,36 +227,35 @@ public class CustomerOrders {
 
     /**
      * This function prompts the user to enter a valid customer ID upon a printed list of customers presented.
+     * The ID is looked up by primary key, so only the chosen customer is ever read as an entity;
+     * the list itself is streamed (see printCustomers).
      *
-     * @param customers list of customers that persists. Holds all Customers inserted into customers list
      * @return A single customer chosen via user input
      */
-    public Customers promptCustomers(List<Customers> customers) {
+    public Customers promptCustomers() {
         Scanner in = new Scanner(System.in);
         Customers cust = null;
 
         while (cust == null) {
             System.out.println("Please enter a customer ID from the list below.");
             printCustomers();
+            if (!in.hasNextLong()) {
+                System.out.println("Not a customer ID: " + in.next());
+                continue;
+            }
             long ID = in.nextLong();
-            // Code citation: I got the code below for easily finding an element in an arraylist
-            // From an object attribute from this site:
-            // https://www.baeldung.com/find-list-element-java
-            cust = customers.stream()
-                    .filter(c -> ID == (c.getCustomer_id()))
-                    .findAny()
-                    .orElse(null);
+            cust = this.entityManager.find(Customers.class, ID);
+            if (cust == null) System.out.println("There is no customer with ID " + ID);
         }
         return cust;
     }
 
     /**
-     * This function prompts the user to enter a valid UPC number given a list of products
+     * This function prompts the user to enter a valid UPC number from the products in the catalog
      *
-     * @param products The list of products already existing that are stored in the list List
      * @return A single product chosen via user input
      */
-    public Products promptProducts(List<Products> products) {
+    public Products promptProducts() {
         Scanner in = new Scanner(System.in);
         Products prod = null;
 
@@ -221,10 +263,7 @@ public class CustomerOrders {
             System.out.println("Please enter the UPC of the product you would like to purchase.");
             printProducts();
             String targetUPC = in.nextLine();
-            prod = products.stream()
-                    .filter(p -> targetUPC.equals(p.getUPC()))
-                    .findAny()
-                    .orElse(null);
+            prod = this.catalog.get(targetUPC);
         }
         return prod;
     }
@@ -272,9 +311,9 @@ public class CustomerOrders {
      *
      */    
     public void printCustomers() {
-        for (Customers c : getAllCustomers()) {
-            System.out.println(c);
-        }
+        // Stream the rows rather than building a List, so that printing does not need memory
+        // for the whole table, and read only the columns that are printed.
+        Listings.print(Listings.streamCustomerSummaries(this.entityManager, Listings.DEFAULT_FETCH_SIZE), System.out);
     }
     
     /**
@@ -282,9 +321,7 @@ public class CustomerOrders {
      *
      */
     public void printProducts() {
-        for (Products p : getAllProducts()) {
-            System.out.println(p);
-        }
+        this.catalog.print(System.out);
     }
 
     /**
@@ -295,42 +332,66 @@ public class CustomerOrders {
      *                 used a Java generic so that I did not have to write this over and over.
      */
     public <E> void createEntity(List<E> entities) {
+        // Building the log messages calls toString on every entity, so skip that work entirely
+        // when INFO logging is turned off.
+        boolean logging = LOGGER.isLoggable(Level.INFO);
+        long start = Metrics.start();
         for (E next : entities) {
-            LOGGER.info("Persisting: " + next);
+            if (logging) LOGGER.info("Persisting: " + next);
             // Use the CustomerOrders entityManager instance variable to get our EntityManager.
             this.entityManager.persist(next);
         }
+        Metrics.stop(Metrics.CREATE_ENTITY, start);
+        Metrics.count(Metrics.ROWS_WRITTEN, entities.size());
 
         // The auto generated ID (if present) is not passed in to the constructor since JPA will
         // generate a value.  So the previous for loop will not show a value for the ID.  But
         // now that the Entity has been persisted, JPA has generated the ID and filled that in.
-        for (E next : entities) {
-            LOGGER.info("Persisted object after flush (non-null id): " + next);
+        if (logging) {
+            for (E next : entities) {
+                LOGGER.info("Persisted object after flush (non-null id): " + next);
+            }
         }
     } // End of createEntity member method
 
+    /**
+     * Persist a large feed of entities in chunks, flushing and clearing the EntityManager as we go
+     * so that memory use stays flat no matter how many rows there are.  Use this rather than
+     * createEntity for the nightly product and customer feeds.
+     *
+     * @param entities  The entities to persist.  The stream is only read once, front to back.
+     * @param chunkSize The number of rows to write between flushes.
+     * @return The number of rows written and the rows/sec achieved.
+     */
+    public <E> BulkLoader.Result bulkLoad(Stream<E> entities, int chunkSize) {
+        return new BulkLoader(this.entityManager, chunkSize).load(entities);
+    } // End of bulkLoad member method
+
     /**
      * Think of this as a simple map from a String to an instance of Products that has the
      * same name, as the string that you pass in.  To create a new Cars instance, you need to pass
      * in an instance of Products to satisfy the foreign key constraint, not just a string
      * representing the name of the style.
      * <p>
-     * //    * @param UPC The name of the product that you are looking for.
+     * @param UPC The UPC of the product that you are looking for.
      *
-     * @return The Products instance corresponding to that UPC.
+     * @return The Products instance corresponding to that UPC, or null if there is none.
      */
    public Products getProduct(String UPC) {
-      // Run the native query that we defined in the Products entity to find the right style.
-      List<Products> products = this.entityManager.createNamedQuery("ReturnProduct",
-              Products.class).setParameter(1, UPC).getResultList();
-      if (products.size() == 0) {
-         // Invalid style name passed in.
-         return null;
-      } else {
-         // Return the style object that they asked for.
-         return products.get(0);
-      }
+      // Most lookups are answered by the catalog; a miss reads the one row by its primary key.
+      return this.catalog.get(UPC);
    }// End of the getStyle method
+
+    /**
+     * Look up several products at once, such as every line of a cart, in a single round trip
+     * (or one per few hundred UPCs) rather than one query per product.
+     *
+     * @param UPCs The UPCs of the products that you are looking for.
+     * @return The Products found, keyed by UPC.  UPCs that match no product are left out.
+     */
+    public Map<String, Products> getProducts(Collection<String> UPCs) {
+        return this.catalog.getAll(UPCs);
+    }// End of the getProducts method
     
     /**
      * A method to create and return a list of all products in our database.
@@ -338,9 +399,11 @@ public class CustomerOrders {
      * @return A List of all products in out database.
      */
     public List<Products> getAllProducts() {
-        // Run the native query that we defined in the Products entity to find the right style.
+        // Run the named query that we defined in the Products entity to find the right style.
+        long start = Metrics.start();
         List<Products> products = this.entityManager.createNamedQuery("ReturnProducts",
                 Products.class).getResultList();
+        Metrics.stop(Metrics.QUERY_RETURN_PRODUCTS, start);
         if (products.size() == 0) {
             // Invalid style name passed in.
             return null;
@@ -352,19 +415,27 @@ public class CustomerOrders {
     }// End of the getStyle method
     
     /**
-     * A method to create and return a list of all customers in our database.
+     * Find out whether a table has any rows yet.
+     *
+     * @param countQuery The name of a COUNT named query, such as CountProducts.
+     * @return True if the count is zero.
+     */
+    public boolean isEmpty(String countQuery) {
+        return this.entityManager.createNamedQuery(countQuery, Long.class).getSingleResult() == 0;
+    }
+
+    /**
+     * A method to create and return a list of all customers in our database.  Every row is read
+     * into memory at once, so this is only for small tables; to show or choose from a large
+     * one, use Listings or CustomerDirectory.
      *
-     * @return A List of all customers in our database.
+     * @return A List of all customers in our database, empty if there are none.
      */
     public List<Customers> getAllCustomers() {
+        long start = Metrics.start();
         List<Customers> allCustomers = this.entityManager.createNamedQuery("ReturnCustomer",
                 Customers.class).getResultList();
-        if (allCustomers.size() == 0) {
-            // Invalid style name passed in.
-            return null;
-        } else {
-            // Return the style object that they asked for.
-            return allCustomers;
-        }
+        Metrics.stop(Metrics.QUERY_RETURN_CUSTOMER, start);
+        return allCustomers;
     }
 }// End of CustomerOrders class
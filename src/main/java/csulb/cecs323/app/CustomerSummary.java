@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+/**
+ * Just enough of a customer to list it: the customer_id and name.
+ * <p>
+ * Built by Listings from the rows of the native ReturnCustomerSummariesAfter query, so no
+ * Customers entity is created, cached or tracked for changes.  Use Listings.customerSummariesPage or
+ * streamCustomerSummaries when the customers are only going to be shown, and the entity
+ * queries when one is going to be changed or put on an order.
+ */
+public final class CustomerSummary {
+    private final long customerId;
+    private final String lastName;
+    private final String firstName;
+
+    public CustomerSummary(long customerId, String lastName, String firstName) {
+        this.customerId = customerId;
+        this.lastName = lastName;
+        this.firstName = firstName;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    /** The same text as Customers.toString, so a listing reads the same either way. */
+    @Override
+    public String toString() {
+        return "Customer- ID: " + customerId + ", Name: " + lastName + ", " + firstName;
+    }
+}
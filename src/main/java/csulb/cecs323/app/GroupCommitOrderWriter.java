@@ -0,0 +1,365 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+import csulb.cecs323.model.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Places orders in groups, many to a transaction, for high volume order intake.
+ * <p>
+ * Every commit costs Derby a synchronous write of its log to disk, and that write, not the
+ * INSERTs, is what limits how many orders per second OrderEntryService can place.  This writer
+ * queues orders instead and lets a single writer thread gather them up: it starts a group with
+ * the first order waiting and keeps adding orders until it has maxBatch of them or maxDelay has
+ * passed since the first, whichever comes first.  The whole group is then written in one
+ * transaction, so one log write covers all of its orders.  Under light load an order waits at
+ * most maxDelay longer than it would have; under heavy load groups fill up and throughput goes
+ * up many times over.
+ * </p>
+ * <p>
+ * Each caller gets a CompletableFuture that completes only after the transaction holding its
+ * order has committed, so a completed future means the order is on disk.  An order that cannot
+ * be placed (unknown customer or product, not enough stock) fails its own future without
+ * affecting the rest of its group: stock is taken with InventoryReservations.tryReserveAll,
+ * which puts back a short order's stock itself.  If the group's transaction fails as a whole,
+ * it is retried on contention, and otherwise each of its orders is placed again on its own so
+ * that one bad order cannot sink the others.
+ * </p>
+ */
+public class GroupCommitOrderWriter implements AutoCloseable {
+    /** The most orders written in one transaction, unless told otherwise. */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /** The longest an order waits for others to join its group, unless told otherwise. */
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(5);
+
+    /** How many orders may be waiting before submit blocks, unless told otherwise. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitOrderWriter.class.getName());
+
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+
+    /** Only ever used by the writer thread. */
+    private final EntityManager manager;
+
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /** The order_date given to the last order, so that no two orders get the same one. */
+    private LocalDateTime lastOrderDate = LocalDateTime.MIN;
+
+    public GroupCommitOrderWriter(EntityManagerFactory factory) {
+        this(factory, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param factory       The factory for the CustomerOrders persistence unit.
+     * @param maxBatch      The most orders to write in one transaction.
+     * @param maxDelay      The longest to wait for a group to fill up.
+     * @param queueCapacity How many orders may be waiting before submit blocks.
+     */
+    public GroupCommitOrderWriter(EntityManagerFactory factory, int maxBatch, Duration maxDelay, int queueCapacity) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be at least 1, was " + maxBatch);
+        }
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.manager = factory.createEntityManager();
+        this.writer = new Thread(this::run, "order-group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue an order.  Blocks while the queue is full, which slows callers down to the rate the
+     * database can keep up with.
+     *
+     * @param request The customer, salesperson and products for the order.
+     * @return A future that completes with the order once it has been committed, or
+     * exceptionally if it could not be placed.
+     */
+    public CompletableFuture<Orders> submit(OrderRequest request) {
+        CompletableFuture<Orders> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("The order writer has been closed"));
+            return future;
+        }
+        try {
+            request.validate();
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        Pending pending = new Pending(request, future);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        // Closed while we were queueing.  The writer may already have drained the queue for the
+        // last time, so unless it has taken this order, nobody ever will: take it back.
+        if (closed && queue.remove(pending)) {
+            future.completeExceptionally(new IllegalStateException("The order writer has been closed"));
+        }
+        return future;
+    }
+
+    /**
+     * The writer thread: gather a group, write it, repeat, until closed and the queue is empty.
+     */
+    private void run() {
+        List<Pending> group = new ArrayList<>(maxBatch);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (group.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    group.add(next);
+                }
+                write(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            IllegalStateException stopped = new IllegalStateException("The order writer stopped");
+            group.forEach(pending -> pending.future.completeExceptionally(stopped));
+            for (Pending pending; (pending = queue.poll()) != null; ) {
+                pending.future.completeExceptionally(stopped);
+            }
+            manager.close();
+        }
+    } // End of run method
+
+    /**
+     * Write one group and complete its futures.  Each order's order_date is picked once, here,
+     * and kept through every retry, so that a retried order cannot collide with a later one.
+     */
+    private void write(List<Pending> group) {
+        List<LocalDateTime> orderDates = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            orderDates.add(nextOrderDate());
+        }
+        Object[] outcomes;
+        try {
+            outcomes = ContentionRetry.DEFAULT.run(() -> writeOnce(group, orderDates));
+        } catch (RuntimeException e) {
+            if (LOGGER.isLoggable(Level.WARNING)) {
+                LOGGER.log(Level.WARNING, "Group of " + group.size() + " orders failed; placing them one at a time", e);
+            }
+            for (int i = 0; i < group.size(); i++) {
+                Pending pending = group.get(i);
+                LocalDateTime orderDate = orderDates.get(i);
+                try {
+                    pending.future.complete(OrderEntryService.placeOrder(manager, pending.request, () -> orderDate));
+                } catch (RuntimeException failed) {
+                    pending.future.completeExceptionally(failed);
+                }
+            }
+            return;
+        }
+        // Only now that the transaction has committed may anyone see their order.
+        for (int i = 0; i < group.size(); i++) {
+            if (outcomes[i] instanceof Orders) {
+                group.get(i).future.complete((Orders) outcomes[i]);
+            } else {
+                group.get(i).future.completeExceptionally((Throwable) outcomes[i]);
+            }
+        }
+    }
+
+    /**
+     * One attempt at writing a group in a single transaction.
+     *
+     * @return For each order in the group, in order, either the persisted Orders or the
+     * RuntimeException saying why that order was turned down.
+     */
+    private Object[] writeOnce(List<Pending> group, List<LocalDateTime> orderDates) {
+        long start = Metrics.start();
+        List<OrderRequest> requests = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            requests.add(pending.request);
+        }
+        EntityTransaction tx = manager.getTransaction();
+        tx.begin();
+        try {
+            Object[] outcomes = placeGroup(manager, requests, orderDates);
+            long committing = Metrics.start();
+            tx.commit();
+            Metrics.stop(Metrics.TX_COMMIT, committing);
+            int placed = placedCount(outcomes);
+            Metrics.count(Metrics.ORDERS_PLACED, placed);
+            Metrics.count(Metrics.ORDERS_FAILED, group.size() - placed);
+            Metrics.stop(Metrics.ORDER_GROUP_COMMIT, start);
+            return outcomes;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            manager.clear();
+        }
+    } // End of writeOnce method
+
+    /**
+     * Place a group of orders inside the caller's transaction, which the caller commits.  An
+     * order that cannot be placed is turned down on its own and leaves nothing behind, so the
+     * rest of the group can still be committed.  JournaledOrderWriter applies its journal
+     * through here too.
+     *
+     * @param manager    The EntityManager whose transaction is active.
+     * @param requests   The orders.
+     * @param orderDates The order_date of each order, in the same order as requests.
+     * @return For each order, in order, either the persisted Orders or the RuntimeException
+     * saying why that order was turned down.
+     */
+    static Object[] placeGroup(EntityManager manager, List<OrderRequest> requests, List<LocalDateTime> orderDates) {
+        // Read every product the group needs with one query per ProductCatalog.BATCH_SIZE
+        // products, rather than one per order.
+        Set<String> upcs = new LinkedHashSet<>();
+        for (OrderRequest request : requests) {
+            for (OrderRequest.Line line : request.getLines()) {
+                upcs.add(line.getUpc());
+            }
+        }
+        Map<String, Products> products = new HashMap<>();
+        List<String> wanted = new ArrayList<>(upcs);
+        for (int from = 0; from < wanted.size(); from += ProductCatalog.BATCH_SIZE) {
+            for (Products product : manager.createNamedQuery("ReturnProductsByUPC", Products.class)
+                    .setParameter("upcs", wanted.subList(from, Math.min(from + ProductCatalog.BATCH_SIZE, wanted.size())))
+                    .getResultList()) {
+                products.put(product.getUPC(), product);
+            }
+        }
+        Object[] outcomes = new Object[requests.size()];
+        List<OrderBuilder> placed = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                OrderBuilder order = placeInGroup(manager, requests.get(i), orderDates.get(i), products);
+                outcomes[i] = order.getOrder();
+                placed.add(order);
+            } catch (IllegalArgumentException | InsufficientStockException e) {
+                outcomes[i] = e;
+            }
+        }
+        // One UPDATE per product and salesperson for the whole group.
+        SalesRollups.record(manager, placed);
+        return outcomes;
+    }
+
+    /** @return How many of placeGroup's outcomes are placed orders. */
+    static int placedCount(Object[] outcomes) {
+        int placed = 0;
+        for (Object outcome : outcomes) {
+            if (outcome instanceof Orders) placed++;
+        }
+        return placed;
+    }
+
+    /**
+     * Check, reserve and persist one order of a group, inside the group's transaction.
+     *
+     * @throws IllegalArgumentException   If the order fails OrderRequest.validate, or the customer
+     *                                    or a product does not exist.
+     * @return The order, persisted but not yet added to the sales totals.
+     * @throws InsufficientStockException If there is not enough stock; nothing has been taken.
+     */
+    private static OrderBuilder placeInGroup(EntityManager manager, OrderRequest request, LocalDateTime orderDate,
+                                             Map<String, Products> products) {
+        // Journal entries written before append checked them may not have been.
+        request.validate();
+        Customers customer = manager.find(Customers.class, request.getCustomerId());
+        if (customer == null) {
+            throw new IllegalArgumentException("No customer with ID " + request.getCustomerId());
+        }
+        OrderBuilder order = new OrderBuilder(customer, orderDate, request.getSoldBy());
+        for (OrderRequest.Line line : request.getLines()) {
+            Products product = products.get(line.getUpc());
+            if (product == null) {
+                throw new IllegalArgumentException("No product with UPC " + line.getUpc());
+            }
+            order.add(product, line.getQuantity());
+        }
+        Map<String, Integer> quantities = order.getQuantities();
+        List<String> shortProducts = InventoryReservations.tryReserveAll(manager, quantities);
+        if (!shortProducts.isEmpty()) {
+            throw new InsufficientStockException("Not enough stock of " + shortProducts + " for " + quantities);
+        }
+        Metrics.count(Metrics.ROWS_WRITTEN, 1 + quantities.size());
+        order.persist(manager);
+        return order;
+    }
+
+    /**
+     * The current time, nudged forward if need be so that it is later than every order date
+     * handed out before.  No customer may have two orders with the same order_date (the
+     * orders_customer_date constraint), and a whole group is built within the same few microseconds.
+     */
+    private LocalDateTime nextOrderDate() {
+        LocalDateTime now = LocalDateTime.now();
+        lastOrderDate = now.isAfter(lastOrderDate) ? now : lastOrderDate.plusNanos(1000);
+        return lastOrderDate;
+    }
+
+    /**
+     * Stop accepting orders, write the ones already queued, and wait for the writer to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** An order waiting to be written, and the future to complete when it is. */
+    private static class Pending {
+        final OrderRequest request;
+        final CompletableFuture<Orders> future;
+
+        Pending(OrderRequest request, CompletableFuture<Orders> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
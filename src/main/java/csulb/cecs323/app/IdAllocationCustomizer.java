@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import org.eclipse.persistence.config.SessionCustomizer;
+import org.eclipse.persistence.sequencing.Sequence;
+import org.eclipse.persistence.sequencing.TableSequence;
+import org.eclipse.persistence.sessions.Session;
+
+import java.util.Map;
+
+/**
+ * Lets us tune how many surrogate ids are reserved from the ID_BLOCKS table at a time without
+ * touching the @TableGenerator annotations.
+ * <p>
+ * EclipseLink reserves a whole block of ids with one UPDATE on the sequence row (done on the
+ * separate sequence connection pool, so it commits right away), then hands ids out of an
+ * in-memory lock-free queue.  Registration threads only meet each other on the sequence row once
+ * per block, so a bigger block means less contention and fewer round trips, at the cost of
+ * bigger gaps in the ids when the application restarts.
+ * </p>
+ * Set either of these persistence unit (or -D system) properties:
+ * <ul>
+ *     <li>{@value #ALLOCATION_SIZE} - block size for every table generator</li>
+ *     <li>{@value #ALLOCATION_SIZE}.&lt;generator name&gt; - block size for one generator,
+ *     for example csulb.cecs323.id.allocation-size.customer_id_gen</li>
+ * </ul>
+ */
+public class IdAllocationCustomizer implements SessionCustomizer {
+    /** The property that overrides the allocationSize of the table generators. */
+    public static final String ALLOCATION_SIZE = "csulb.cecs323.id.allocation-size";
+
+    @Override
+    public void customize(Session session) {
+        // getSequences is a raw Map, so go through its values as Objects.
+        Map<?, ?> sequences = session.getLogin().getSequences();
+        if (sequences == null) return;
+        String defaultSize = lookup(session, ALLOCATION_SIZE);
+        for (Object value : sequences.values()) {
+            if (!(value instanceof TableSequence)) continue;
+            Sequence sequence = (Sequence) value;
+            String size = lookup(session, ALLOCATION_SIZE + "." + sequence.getName());
+            if (size == null) size = defaultSize;
+            if (size != null) {
+                int blockSize = Integer.parseInt(size.trim());
+                if (blockSize < 1) {
+                    throw new IllegalArgumentException(ALLOCATION_SIZE + " must be at least 1, was " + blockSize);
+                }
+                sequence.setPreallocationSize(blockSize);
+            }
+        }
+    }
+
+    /**
+     * Find a property, first in the persistence unit and then in the system properties.
+     */
+    private static String lookup(Session session, String name) {
+        Object value = session.getProperty(name);
+        return value != null ? value.toString() : System.getProperty(name);
+    }
+}
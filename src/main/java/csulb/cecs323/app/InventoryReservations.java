@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.ProductChanges;
+import csulb.cecs323.model.Products;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Takes products out of stock safely when several orders are being placed at the same time.
+ * <p>
+ * Reading units_in_stock, checking it, and then writing back a smaller number lets two orders
+ * both see the same stock and both take it.  Instead, every reservation here is a single
+ * conditional UPDATE that only subtracts when there is enough on hand, so the database does the
+ * check and the decrement atomically and units_in_stock can never go negative.  The UPDATE also
+ * bumps the @Version column on Products, so anybody holding an older copy of the product will
+ * get an optimistic lock failure if they try to write it back.
+ * </p>
+ * <p>
+ * All of the methods here must be called inside a transaction.  Because the UPDATEs go around
+ * EclipseLink, the reserved products are evicted from the shared cache afterwards, so that the
+ * rest of the transaction does not read the old stock from it.  They are also reported to
+ * ProductChanges, which evicts them again once the transaction commits and only then tells any
+ * ProductCatalog to drop them: until the commit, another reader may still see the old row.
+ * </p>
+ */
+public class InventoryReservations {
+    private InventoryReservations() {}
+
+    /**
+     * Reserve some of a single product.
+     *
+     * @param manager  The EntityManager whose transaction the reservation belongs to.
+     * @param upc      The product to take out of stock.
+     * @param quantity How many to take.
+     * @return true if there was enough stock and it has been reserved, false if not.
+     */
+    public static boolean reserve(EntityManager manager, String upc, int quantity) {
+        int updated = manager.createNamedQuery("ReserveProduct")
+                .setParameter(1, quantity)
+                .setParameter(2, upc)
+                .setParameter(3, quantity)
+                .executeUpdate();
+        evict(manager, upc);
+        return updated == 1;
+    }
+
+    /**
+     * Put back stock that was reserved, for example when an order is cancelled.
+     *
+     * @param manager  The EntityManager whose transaction the release belongs to.
+     * @param upc      The product to return to stock.
+     * @param quantity How many to return.
+     */
+    public static void release(EntityManager manager, String upc, int quantity) {
+        manager.createNamedQuery("ReleaseProduct")
+                .setParameter(1, quantity)
+                .setParameter(2, upc)
+                .executeUpdate();
+        evict(manager, upc);
+    }
+
+    /**
+     * Reserve every line of an order, all or nothing, in one round trip.  The conditional UPDATE
+     * for each product is sent to the database as a single JDBC batch; any product that is short
+     * shows up as a statement that changed no rows.  In that case the caller's transaction is
+     * marked for rollback, which undoes the reservations that did go through.
+     *
+     * @param manager    The EntityManager whose transaction the reservation belongs to.
+     * @param quantities The quantity wanted of each product, keyed by UPC.
+     * @throws InsufficientStockException If any product does not have enough stock.
+     */
+    public static void reserveAll(EntityManager manager, Map<String, Integer> quantities) {
+        if (quantities.isEmpty()) return;
+        Map<String, Integer> sorted = new TreeMap<>(quantities);
+        List<String> shortProducts = shortOf(sorted, executeBatch(manager, Products.RESERVE_SQL, sorted, true));
+        if (!shortProducts.isEmpty()) {
+            manager.getTransaction().setRollbackOnly();
+            throw new InsufficientStockException("Not enough stock of " + shortProducts + " for " + sorted);
+        }
+    } // End of reserveAll method
+
+    /**
+     * Like reserveAll, all or nothing, but leaves the caller's transaction usable when there is
+     * not enough stock: whatever was reserved is put back straight away instead of waiting for a
+     * rollback.  This lets several orders share one transaction (see GroupCommitOrderWriter)
+     * without one short order undoing the others.
+     *
+     * @param manager    The EntityManager whose transaction the reservation belongs to.
+     * @param quantities The quantity wanted of each product, keyed by UPC.
+     * @return The UPCs that were short; empty if everything was reserved.
+     */
+    public static List<String> tryReserveAll(EntityManager manager, Map<String, Integer> quantities) {
+        if (quantities.isEmpty()) return Collections.emptyList();
+        Map<String, Integer> sorted = new TreeMap<>(quantities);
+        int[] updated = executeBatch(manager, Products.RESERVE_SQL, sorted, true);
+        List<String> shortProducts = shortOf(sorted, updated);
+        if (!shortProducts.isEmpty()) {
+            Map<String, Integer> reserved = new TreeMap<>(sorted);
+            reserved.keySet().removeAll(shortProducts);
+            executeBatch(manager, Products.RELEASE_SQL, reserved, false);
+        }
+        return shortProducts;
+    } // End of tryReserveAll method
+
+    /**
+     * Run RESERVE_SQL or RELEASE_SQL for every product as one JDBC batch, in UPC order.
+     *
+     * @return The update count of each statement, in the order of the map.
+     */
+    private static int[] executeBatch(EntityManager manager, String sql, Map<String, Integer> sorted,
+                                      boolean conditional) {
+        // The map is sorted by UPC, so the rows are always locked in UPC order and two orders
+        // sharing products cannot each hold a row that the other one is waiting for.
+        // The connection belongs to the EntityManager's transaction; only the statement is ours.
+        Connection connection = manager.unwrap(Connection.class);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Map.Entry<String, Integer> line : sorted.entrySet()) {
+                statement.setInt(1, line.getValue());
+                statement.setString(2, line.getKey());
+                if (conditional) statement.setInt(3, line.getValue());
+                statement.addBatch();
+            }
+            return statement.executeBatch();
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not update stock for " + sorted, e);
+        } finally {
+            evict(manager, sorted.keySet());
+        }
+    }
+
+    /** The UPCs whose conditional UPDATE changed no rows. */
+    private static List<String> shortOf(Map<String, Integer> sorted, int[] updated) {
+        List<String> shortProducts = new ArrayList<>();
+        int i = 0;
+        for (String upc : sorted.keySet()) {
+            if (updated[i++] == 0) shortProducts.add(upc);
+        }
+        return shortProducts;
+    }
+
+    private static void evict(EntityManager manager, String upc) {
+        manager.getEntityManagerFactory().getCache().evict(Products.class, upc);
+        ProductChanges.changing(upc);
+    }
+
+    private static void evict(EntityManager manager, Collection<String> upcs) {
+        for (String upc : upcs) {
+            evict(manager, upc);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+import csulb.cecs323.model.Journal_checkpoints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts orders as soon as they are in an OrderJournal, and writes them to the database behind
+ * the scenes.
+ * <p>
+ * GroupCommitOrderWriter makes each caller wait for a database commit.  This writer only makes
+ * them wait for the journal's fsync, which is shared by every order appended while the last
+ * one ran, so orders can be taken far faster than the database can commit them.  A single
+ * apply thread reads the journal (only entries already on disk) and writes up to maxBatch
+ * orders per transaction, with GroupCommitOrderWriter.placeGroup.  The same transaction moves
+ * this journal's row in Journal_checkpoints (keyed by the journal's id, which no other journal
+ * can have) up to the last entry written, so an entry is
+ * either applied and checkpointed or neither, and is never applied twice.  While orders come
+ * in faster than they can be applied, the journal grows on disk; applied segments are deleted.
+ * </p>
+ * <p>
+ * On startup the apply thread starts from the checkpoint, so whatever was accepted but not yet
+ * applied when the last run stopped (or crashed) is replayed before any new order.  An order
+ * that the database turns down (unknown customer or product, not enough stock) was accepted
+ * before anyone could know that; it is logged as a warning, counted in orders.failed, and
+ * passed over.  If a whole group cannot be written, its orders are tried one at a time.  An
+ * order that fails the same way every time (see isRejection) is turned down like the others,
+ * and the checkpoint moves past it.  An order that cannot be written for any other reason,
+ * such as the database being down, is retried until it can or the writer is closed.  It is
+ * never skipped: it stays in the journal for the next run.
+ * </p>
+ */
+public class JournaledOrderWriter implements AutoCloseable {
+    /** The most journal entries applied in one transaction, unless told otherwise. */
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    /** How long to wait before trying an order that could not be written again. */
+    private static final long RETRY_PAUSE_MILLIS = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(JournaledOrderWriter.class.getName());
+
+    private final OrderJournal journal;
+    private final int maxBatch;
+
+    /** Only ever used by the apply thread, once the constructor is done. */
+    private final EntityManager manager;
+    private final OrderJournal.Reader reader;
+
+    private final Thread applier;
+    private volatile boolean closed;
+
+    /** The last entry written to the database (or turned down).  Guarded by applied for waiting on. */
+    private volatile long appliedThrough;
+    private final Object applied = new Object();
+
+    public JournaledOrderWriter(EntityManagerFactory factory, OrderJournal journal) {
+        this(factory, journal, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Start applying the journal from where it was last left off.
+     *
+     * @param factory  The factory for the CustomerOrders persistence unit.
+     * @param journal  The journal to take orders into.  The caller closes it, after this writer.
+     * @param maxBatch The most entries to apply in one transaction.
+     * @throws IllegalStateException If the database has applied entries that the journal does
+     *                               not have, which means the journal directory was replaced.
+     */
+    public JournaledOrderWriter(EntityManagerFactory factory, OrderJournal journal, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be at least 1, was " + maxBatch);
+        }
+        this.journal = journal;
+        this.maxBatch = maxBatch;
+        this.manager = factory.createEntityManager();
+        Journal_checkpoints checkpoint = manager.find(Journal_checkpoints.class, journal.getId());
+        manager.clear();
+        this.appliedThrough = checkpoint == null ? 0 : checkpoint.getApplied_through();
+        if (appliedThrough > journal.getLastSequence()) {
+            manager.close();
+            throw new IllegalStateException("Journal " + journal.getName() + " was applied through entry "
+                    + appliedThrough + " but only goes up to " + journal.getLastSequence());
+        }
+        this.reader = journal.reader(appliedThrough);
+        long unapplied = journal.getLastSequence() - appliedThrough;
+        if (unapplied > 0 && LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Replaying " + unapplied + " journaled orders from " + journal.getName());
+        }
+        this.applier = new Thread(this::run, "order-journal-apply");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    /**
+     * Accept an order.
+     *
+     * @param request The customer, salesperson and products for the order.
+     * @return A future that completes with the order's journal sequence number once the order
+     * is on disk in the journal.  It is written to the database later; see awaitApplied.
+     */
+    public CompletableFuture<Long> submit(OrderRequest request) {
+        if (closed) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("The order writer has been closed"));
+            return future;
+        }
+        return journal.append(request);
+    }
+
+    /** @return The last journal entry that has been written to the database (or turned down). */
+    public long getAppliedThrough() {
+        return appliedThrough;
+    }
+
+    /**
+     * Wait until a journal entry has been written to the database (or turned down).
+     *
+     * @return True if it has; false if the time ran out first.
+     */
+    public boolean awaitApplied(long sequence, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (applied) {
+            while (appliedThrough < sequence) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(applied, wait);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The apply thread: read what is on disk, apply it, repeat, until closed and caught up.
+     */
+    private void run() {
+        try {
+            while (true) {
+                List<OrderJournal.Entry> batch = reader.read(maxBatch);
+                if (batch.isEmpty()) {
+                    if (closed && reader.getLastRead() >= journal.getLastSequence()) break;
+                    journal.awaitSynced(reader.getLastRead() + 1, 100, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                if (!apply(batch)) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            manager.close();
+        }
+    } // End of run method
+
+    /**
+     * Apply one batch, falling back to one entry at a time if the batch as a whole fails.
+     *
+     * @return False if the writer was closed before every entry could be applied.
+     */
+    private boolean apply(List<OrderJournal.Entry> batch) throws InterruptedException {
+        try {
+            ContentionRetry.DEFAULT.run(() -> applyOnce(batch));
+            return true;
+        } catch (RuntimeException e) {
+            if (batch.size() > 1 && LOGGER.isLoggable(Level.WARNING)) {
+                LOGGER.log(Level.WARNING, "Group of " + batch.size() + " journaled orders failed; applying them one at a time", e);
+            }
+        }
+        for (OrderJournal.Entry entry : batch) {
+            while (true) {
+                try {
+                    ContentionRetry.DEFAULT.run(() -> applyOnce(Collections.singletonList(entry)));
+                    break;
+                } catch (RuntimeException failure) {
+                    RuntimeException e = failure;
+                    if (isRejection(failure)) {
+                        try {
+                            ContentionRetry.DEFAULT.run(() -> reject(entry, failure));
+                            break;
+                        } catch (RuntimeException notRecorded) {
+                            // Could not even move the checkpoint; try the whole thing again.
+                            e = notRecorded;
+                        }
+                    }
+                    if (LOGGER.isLoggable(Level.SEVERE)) {
+                        LOGGER.log(Level.SEVERE, "Cannot apply journal entry " + entry.getSequence()
+                                + " of " + journal.getName() + "; it will be tried again", e);
+                    }
+                    if (closed) return false;
+                    Thread.sleep(RETRY_PAUSE_MILLIS);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One attempt at applying some entries in a single transaction, checkpoint included.
+     */
+    private Object applyOnce(List<OrderJournal.Entry> entries) {
+        long start = Metrics.start();
+        List<OrderRequest> requests = new ArrayList<>(entries.size());
+        List<LocalDateTime> orderDates = new ArrayList<>(entries.size());
+        for (OrderJournal.Entry entry : entries) {
+            requests.add(entry.getRequest());
+            orderDates.add(entry.getOrderDate());
+        }
+        long through = entries.get(entries.size() - 1).getSequence();
+        EntityTransaction tx = manager.getTransaction();
+        tx.begin();
+        Object[] outcomes;
+        try {
+            outcomes = GroupCommitOrderWriter.placeGroup(manager, requests, orderDates);
+            checkpoint(through);
+            long committing = Metrics.start();
+            tx.commit();
+            Metrics.stop(Metrics.TX_COMMIT, committing);
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            manager.clear();
+        }
+        int placed = GroupCommitOrderWriter.placedCount(outcomes);
+        Metrics.count(Metrics.ORDERS_PLACED, placed);
+        Metrics.count(Metrics.ORDERS_FAILED, entries.size() - placed);
+        Metrics.stop(Metrics.JOURNAL_APPLY, start);
+        if (placed < entries.size() && LOGGER.isLoggable(Level.WARNING)) {
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] instanceof Throwable) {
+                    LOGGER.warning("Journal entry " + entries.get(i).getSequence() + " turned down: "
+                            + ((Throwable) outcomes[i]).getMessage());
+                }
+            }
+        }
+        advance(through);
+        return outcomes;
+    } // End of applyOnce method
+
+    /**
+     * Turn down an entry that can never be applied: move the checkpoint past it, on its own.
+     */
+    private Object reject(OrderJournal.Entry entry, RuntimeException reason) {
+        EntityTransaction tx = manager.getTransaction();
+        tx.begin();
+        try {
+            checkpoint(entry.getSequence());
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            manager.clear();
+        }
+        Metrics.count(Metrics.ORDERS_FAILED, 1);
+        if (LOGGER.isLoggable(Level.WARNING)) {
+            LOGGER.log(Level.WARNING, "Journal entry " + entry.getSequence() + " turned down: " + entry, reason);
+        }
+        advance(entry.getSequence());
+        return null;
+    }
+
+    /**
+     * Whether an entry failed in a way that trying again cannot fix: the order itself is bad
+     * (IllegalArgumentException, or ArithmeticException from adding up its quantities), or the
+     * database refused its data (SQLState class 22, data exception, such as a value too long for
+     * its column; or class 23, integrity constraint violation).
+     */
+    static boolean isRejection(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IllegalArgumentException || t instanceof ArithmeticException
+                    || t instanceof InsufficientStockException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && (state.startsWith("22") || state.startsWith("23"))) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Move this journal's checkpoint, inside the caller's transaction. */
+    private void checkpoint(long through) {
+        Journal_checkpoints checkpoint = manager.find(Journal_checkpoints.class, journal.getId());
+        if (checkpoint == null) {
+            manager.persist(new Journal_checkpoints(journal.getId(), through));
+        } else {
+            checkpoint.setApplied_through(through);
+        }
+    }
+
+    /** The checkpoint has committed at through: tell the waiters and let the journal go. */
+    private void advance(long through) {
+        synchronized (applied) {
+            appliedThrough = through;
+            applied.notifyAll();
+        }
+        journal.release(through);
+    }
+
+    /**
+     * Stop accepting orders, apply every one already accepted, and wait for the apply thread to
+     * finish.  An order that cannot be applied right now is left in the journal for next time.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Apply whatever is left in a journal and stop: recovery after a crash, without taking any
+     * new orders.
+     *
+     * @param args The journal's directory.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: JournaledOrderWriter <journal directory>");
+            System.exit(2);
+        }
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
+        try (OrderJournal journal = OrderJournal.open(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            long first;
+            try (JournaledOrderWriter writer = new JournaledOrderWriter(factory, journal)) {
+                first = writer.getAppliedThrough();
+                writer.awaitApplied(journal.getLastSequence(), Duration.ofDays(1));
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            if (first == journal.getLastSequence()) {
+                System.out.println("Nothing to apply in " + journal.getName());
+            } else {
+                System.out.println("Applied entries " + (first + 1) + " to " + journal.getLastSequence() + " of "
+                        + journal.getName() + " in " + elapsed + " ms");
+            }
+        } finally {
+            factory.close();
+        }
+    } // End of main method
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Order_lines;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.CursoredStream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists customers, products and order lines without reading whole tables into memory.
+ * <p>
+ * getAllCustomers and getAllProducts in CustomerOrders build a List of every row, which is fine
+ * for a class project and hopeless for a table with millions of rows.  This class offers two
+ * alternatives:
+ * </p>
+ * <ul>
+ *     <li>Keyset pages: the next pageSize rows after the last key that the caller saw.  Every
+ *     page is an index range scan on the primary key, so page 10,000 costs the same as page 1.</li>
+ *     <li>Streams backed by an EclipseLink CursoredStream over a forward-only result set.  Rows
+ *     are fetched fetchSize at a time and built as read-only objects, so nothing is kept in the
+ *     persistence context, and rows already handed out are released as the stream advances.
+ *     Close the stream (try-with-resources) to release the cursor.  (A ScrollableCursor would
+ *     need a scrollable result set, which embedded Derby only provides by materializing it.)</li>
+ * </ul>
+ * <p>
+ * Either way can hand back entities or summaries.  A CustomerSummary or ProductSummary is built
+ * straight from the few columns that a listing shows, so there is no entity to build,
+ * register, cache or compare on commit.  Use summaries for anything that is only printed or
+ * sent on, and entities for anything that is going to be changed or put on an order.
+ * </p>
+ */
+public class Listings {
+    /** Rows per JDBC round trip when streaming, unless the caller picks a size. */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    private Listings() {}
+
+    /**
+     * One page of customers, in customer_id order.
+     *
+     * @param manager  The EntityManager to read through.
+     * @param afterId  The last customer_id on the previous page, or 0 for the first page.
+     * @param pageSize The most customers to return.
+     * @return Up to pageSize customers; fewer (or none) means this is the last page.
+     */
+    public static List<Customers> customersPage(EntityManager manager, long afterId, int pageSize) {
+        return manager.createNamedQuery("ReturnCustomersAfter", Customers.class)
+                .setParameter("after", afterId)
+                .setMaxResults(pageSize)
+                .setHint(QueryHints.READ_ONLY, HintValues.TRUE)
+                .getResultList();
+    }
+
+    /**
+     * One page of products, in UPC order.
+     *
+     * @param manager  The EntityManager to read through.
+     * @param afterUpc The last UPC on the previous page, or "" for the first page.
+     * @param pageSize The most products to return.
+     * @return Up to pageSize products; fewer (or none) means this is the last page.
+     */
+    public static List<Products> productsPage(EntityManager manager, String afterUpc, int pageSize) {
+        return manager.createNamedQuery("ReturnProductsAfter", Products.class)
+                .setParameter("after", afterUpc)
+                .setMaxResults(pageSize)
+                .setHint(QueryHints.READ_ONLY, HintValues.TRUE)
+                .getResultList();
+    }
+
+    /** Every customer, in customer_id order, streamed from the database. */
+    public static Stream<Customers> streamCustomers(EntityManager manager, int fetchSize) {
+        return stream(manager.createNamedQuery("ReturnCustomersAfter", Customers.class)
+                .setParameter("after", 0L), fetchSize);
+    }
+
+    /** Every product, in UPC order, streamed from the database. */
+    public static Stream<Products> streamProducts(EntityManager manager, int fetchSize) {
+        return stream(manager.createNamedQuery("ReturnProductsAfter", Products.class)
+                .setParameter("after", ""), fetchSize);
+    }
+
+    /**
+     * One page of customer summaries, in customer_id order.
+     *
+     * @param manager  The EntityManager to read through.  Nothing is added to its persistence context.
+     * @param afterId  The last customer_id on the previous page, or 0 for the first page.
+     * @param pageSize The most customers to return.
+     * @return Up to pageSize customers; fewer (or none) means this is the last page.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<CustomerSummary> customerSummariesPage(EntityManager manager, long afterId, int pageSize) {
+        List<Object[]> rows = manager.createNamedQuery("ReturnCustomerSummariesAfter")
+                .setParameter(1, afterId)
+                .setMaxResults(pageSize)
+                // A native query's page is cut off with JDBC maxRows, and Derby refuses a fetch
+                // size bigger than that; a page is read in one round trip anyway.
+                .setHint(QueryHints.JDBC_FETCH_SIZE, pageSize)
+                .getResultList();
+        List<CustomerSummary> page = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            page.add(toCustomerSummary(row));
+        }
+        return page;
+    }
+
+    /**
+     * One page of product summaries, in UPC order.
+     *
+     * @param manager  The EntityManager to read through.  Nothing is added to its persistence context.
+     * @param afterUpc The last UPC on the previous page, or "" for the first page.
+     * @param pageSize The most products to return.
+     * @return Up to pageSize products; fewer (or none) means this is the last page.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<ProductSummary> productSummariesPage(EntityManager manager, String afterUpc, int pageSize) {
+        List<Object[]> rows = manager.createNamedQuery("ReturnProductSummariesAfter")
+                .setParameter(1, afterUpc)
+                .setMaxResults(pageSize)
+                // A native query's page is cut off with JDBC maxRows, and Derby refuses a fetch
+                // size bigger than that; a page is read in one round trip anyway.
+                .setHint(QueryHints.JDBC_FETCH_SIZE, pageSize)
+                .getResultList();
+        List<ProductSummary> page = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            page.add(toProductSummary(row));
+        }
+        return page;
+    }
+
+    /** Every customer, in customer_id order, streamed from the database as summaries. */
+    public static Stream<CustomerSummary> streamCustomerSummaries(EntityManager manager, int fetchSize) {
+        Stream<Object[]> rows = stream(manager.createNamedQuery("ReturnCustomerSummariesAfter")
+                .setParameter(1, 0L), fetchSize);
+        return rows.map(Listings::toCustomerSummary);
+    }
+
+    /** Every product, in UPC order, streamed from the database as summaries. */
+    public static Stream<ProductSummary> streamProductSummaries(EntityManager manager, int fetchSize) {
+        Stream<Object[]> rows = stream(manager.createNamedQuery("ReturnProductSummariesAfter")
+                .setParameter(1, ""), fetchSize);
+        return rows.map(Listings::toProductSummary);
+    }
+
+    /**
+     * Every line of the orders placed in [from, to), with their orders, customers and products
+     * read as the {@value OrderLineFetchPlan#PROPERTY} property says (a join, by default).
+     */
+    public static List<Order_lines> orderLines(EntityManager manager, LocalDateTime from, LocalDateTime to) {
+        return orderLines(manager, from, to, OrderLineFetchPlan.fromSystemProperties());
+    }
+
+    /**
+     * Every line of the orders placed in [from, to), with their orders, customers and products
+     * read as the fetch plan says.
+     *
+     * @param manager The EntityManager to read through.
+     * @param from    The first order_date included.
+     * @param to      The first order_date after the range (exclusive).
+     * @param plan    How to read the orders, customers and products.
+     * @return The lines, in no particular order.
+     */
+    public static List<Order_lines> orderLines(EntityManager manager, LocalDateTime from, LocalDateTime to,
+                                               OrderLineFetchPlan plan) {
+        return plan.apply(manager.createNamedQuery("ReturnOrderLinesBetween", Order_lines.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .setHint(QueryHints.READ_ONLY, HintValues.TRUE))
+                .getResultList();
+    }
+
+    /**
+     * Like orderLines, but streamed from the database.  With BATCH, each fetchSize lines bring
+     * their orders, customers and products with them.
+     */
+    public static Stream<Order_lines> streamOrderLines(EntityManager manager, LocalDateTime from, LocalDateTime to,
+                                                       OrderLineFetchPlan plan, int fetchSize) {
+        return stream(plan.apply(manager.createNamedQuery("ReturnOrderLinesBetween", Order_lines.class)
+                .setParameter("from", from)
+                .setParameter("to", to)), fetchSize);
+    }
+
+    /**
+     * Run a query through an EclipseLink CursoredStream and hand the rows back as a Stream.
+     *
+     * @param query     The query to run, a JPQL or a native one.  Its hints are changed to request a cursor.
+     * @param fetchSize How many rows are read per round trip.
+     * @return A lazily populated stream that closes the cursor when it is closed.
+     */
+    public static <T> Stream<T> stream(Query query, int fetchSize) {
+        // Only queries for entities build objects that could be kept in the persistence context.
+        if (JpaHelper.getDatabaseQuery(query).isObjectLevelReadQuery()) {
+            query.setHint(QueryHints.READ_ONLY, HintValues.TRUE);
+        }
+        CursoredStream cursor = (CursoredStream) query
+                .setHint(QueryHints.CURSOR, HintValues.TRUE)
+                .setHint(QueryHints.CURSOR_PAGE_SIZE, fetchSize)
+                .setHint(QueryHints.JDBC_FETCH_SIZE, fetchSize)
+                .getSingleResult();
+        Iterator<T> rows = new Iterator<T>() {
+            private int sinceRelease = 0;
+
+            @Override
+            public boolean hasNext() {
+                return !cursor.atEnd();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (cursor.atEnd()) throw new NoSuchElementException();
+                T row = (T) cursor.read();
+                // A CursoredStream remembers every row it has read unless told to let them go.
+                if (++sinceRelease == fetchSize) {
+                    cursor.releasePrevious();
+                    sinceRelease = 0;
+                }
+                return row;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+    /**
+     * Print every row of a stream, one per line, and close the stream.  Only the row being
+     * printed is held in memory, so this works the same for ten rows or ten million.
+     *
+     * @param rows The rows to print.
+     * @param out  Where to print them.
+     * @return How many rows were printed.
+     */
+    public static long print(Stream<?> rows, PrintStream out) {
+        long count = 0;
+        try (Stream<?> closing = rows) {
+            Iterator<?> it = closing.iterator();
+            while (it.hasNext()) {
+                out.println(it.next());
+                count++;
+            }
+        }
+        out.flush();
+        return count;
+    }
+
+    private static CustomerSummary toCustomerSummary(Object[] row) {
+        return new CustomerSummary(((Number) row[0]).longValue(), (String) row[1], (String) row[2]);
+    }
+
+    private static ProductSummary toProductSummary(Object[] row) {
+        return new ProductSummary((String) row[0], (String) row[1], Money.of((BigDecimal) row[2]),
+                ((Number) row[3]).intValue());
+    }
+}
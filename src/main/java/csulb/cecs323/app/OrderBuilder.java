@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Order_lines;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts together one order: a single Orders row and one Order_lines row per product.
+ * <p>
+ * Order_lines is keyed by (order, product), so a cart that has the same product in it twice
+ * must still produce only one line for it.  Adding a product that is already in the order here
+ * adds to that line's quantity instead of making a second line.  When the order is finished,
+ * persist writes the whole thing in one pass: the Orders row once, then each line once, which
+ * with JDBC batch writing is one INSERT for the order and one batch for the lines.
+ * </p>
+ * <p>
+ * Until then the cart is just products and quantities.  The Order_lines are only made once the
+ * order has been persisted and so has its order_id, which they hash on.
+ * </p>
+ */
+public class OrderBuilder {
+    private final Orders order;
+
+    /** What is in the cart, by UPC, in the order the products were first added. */
+    private final Map<String, Item> items = new LinkedHashMap<>();
+
+    /** The lines, once persist has made them. */
+    private List<Order_lines> lines;
+
+    /**
+     * Start an empty order.
+     *
+     * @param customer  The customer placing the order.
+     * @param orderDate When it was placed.
+     * @param soldBy    The salesperson who took it.
+     */
+    public OrderBuilder(Customers customer, LocalDateTime orderDate, String soldBy) {
+        this.order = new Orders(customer, orderDate, soldBy);
+    }
+
+    /**
+     * Add some of a product at its list price.
+     *
+     * @param product  The product ordered.
+     * @param quantity How many more of it the customer wants.
+     * @return This builder.
+     */
+    public OrderBuilder add(Products product, int quantity) {
+        return add(product, quantity, product.getUnit_list_price());
+    }
+
+    /**
+     * Add some of a product at a given price.  If the product is already in the order, the
+     * quantity is added to its line, which keeps the price it was first added at.
+     *
+     * @param product   The product ordered.
+     * @param quantity  How many more of it the customer wants.
+     * @param unitPrice The price of each one for this order.
+     * @return This builder.
+     * @throws IllegalArgumentException If the quantity is less than 1, or the line would hold
+     *                                  more than Integer.MAX_VALUE of the product.
+     */
+    public OrderBuilder add(Products product, int quantity, Money unitPrice) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be at least 1, was " + quantity);
+        }
+        if (lines != null) {
+            throw new IllegalStateException("The order has already been persisted");
+        }
+        Item item = items.get(product.getUPC());
+        if (item == null) {
+            items.put(product.getUPC(), new Item(product, quantity, unitPrice));
+        } else {
+            long total = (long) item.quantity + quantity;
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many of " + product.getUPC() + " in one order: "
+                        + item.quantity + " plus " + quantity);
+            }
+            item.quantity = (int) total;
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public Orders getOrder() {
+        return order;
+    }
+
+    /**
+     * @return One line per product, in the order the products were first added.
+     * @throws IllegalStateException If the order has not been persisted yet.
+     */
+    public List<Order_lines> getLines() {
+        if (lines == null) {
+            throw new IllegalStateException("The lines are made when the order is persisted");
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    /** @return The total quantity of each product, keyed by UPC, ready for InventoryReservations. */
+    public Map<String, Integer> getQuantities() {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (Map.Entry<String, Item> item : items.entrySet()) {
+            quantities.put(item.getKey(), item.getValue().quantity);
+        }
+        return quantities;
+    }
+
+    /** @return What the whole order costs. */
+    public Money getTotal() {
+        return Money.ofCents(getTotalCents());
+    }
+
+    /**
+     * What the whole order costs, in cents.  This is exact however many lines there are, and
+     * allocates nothing, so it is fine to call after every change to the cart.
+     */
+    public long getTotalCents() {
+        long total = 0;
+        for (Item item : items.values()) {
+            total = Money.plus(total, Money.times(item.unitPrice.getCents(), item.quantity));
+        }
+        return total;
+    }
+
+    /**
+     * Persist the order and its lines.  Must be called inside a transaction, and only once.
+     *
+     * @param manager The EntityManager to persist through.
+     * @return The order.
+     */
+    public Orders persist(EntityManager manager) {
+        if (items.isEmpty()) {
+            throw new IllegalStateException("An order needs at least one line");
+        }
+        if (lines != null) {
+            throw new IllegalStateException("The order has already been persisted");
+        }
+        // Persisting the order gives it its order_id (the ids come out of a reserved block), so
+        // every line below is made with its whole key already known.
+        manager.persist(order);
+        List<Order_lines> made = new ArrayList<>(items.size());
+        for (Item item : items.values()) {
+            Order_lines line = new Order_lines(order, item.product, item.quantity, item.unitPrice);
+            manager.persist(line);
+            made.add(line);
+        }
+        lines = made;
+        return order;
+    }
+
+    /** One product in the cart. */
+    private static class Item {
+        final Products product;
+        final Money unitPrice;
+        int quantity;
+
+        Item(Products product, int quantity, Money unitPrice) {
+            this.product = product;
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+import csulb.cecs323.model.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Places orders without any prompting, so that many orders can be in flight at once.
+ * <p>
+ * An EntityManager is not thread safe, which is why CustomerOrders gets away with one: it only
+ * ever has one thread.  This service owns a pool of worker threads instead, and each worker gets
+ * its own EntityManager from the shared EntityManagerFactory the first time it places an order.
+ * The persistence path is the same one that main uses: one Orders row plus one Order_lines row
+ * per product, committed in a single transaction along with the order's SalesRollups totals.
+ * Stock is taken through InventoryReservations, and orders that lose a race with another
+ * transaction are retried by ContentionRetry.
+ * </p>
+ */
+public class OrderEntryService implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(OrderEntryService.class.getName());
+
+    /** Where every worker gets its EntityManager from. */
+    private final EntityManagerFactory factory;
+
+    /** The worker threads that actually place the orders. */
+    private final ExecutorService workers;
+
+    /** The EntityManager belonging to the current worker thread. */
+    private final ThreadLocal<EntityManager> managers;
+
+    /** Every EntityManager handed out, so that close can close them all. */
+    private final Queue<EntityManager> allManagers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Start a service with one worker per available processor.
+     *
+     * @param factory The factory for the CustomerOrders persistence unit.
+     */
+    public OrderEntryService(EntityManagerFactory factory) {
+        this(factory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Start a service with a given number of workers.
+     *
+     * @param factory     The factory for the CustomerOrders persistence unit.
+     * @param workerCount How many orders may be written to the database at the same time.
+     */
+    public OrderEntryService(EntityManagerFactory factory, int workerCount) {
+        this.factory = factory;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread worker = new Thread(runnable, "order-entry-" + threadNumber.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.managers = ThreadLocal.withInitial(() -> {
+            EntityManager manager = this.factory.createEntityManager();
+            allManagers.add(manager);
+            return manager;
+        });
+    }
+
+    /**
+     * Queue an order to be placed by one of the workers.
+     *
+     * @param request The customer, salesperson and products for the order.
+     * @return A future that completes with the persisted order, or exceptionally if the order
+     * could not be placed (unknown customer or product, not enough stock, database error).
+     */
+    public CompletableFuture<Orders> submit(OrderRequest request) {
+        return CompletableFuture.supplyAsync(() -> placeOrder(managers.get(), request), workers);
+    }
+
+    /**
+     * Place a single order on the calling thread, using the given EntityManager.  All of the
+     * order's rows are written in one transaction; if anything goes wrong, none of them are.
+     *
+     * @param manager An EntityManager that no other thread is using right now.
+     * @param request The customer, salesperson and products for the order.
+     * @return The persisted order.
+     */
+    public static Orders placeOrder(EntityManager manager, OrderRequest request) {
+        return placeOrder(manager, request, LocalDateTime::now);
+    }
+
+    /**
+     * Place a single order, as placeOrder above, with its order_date from orderDate, which is
+     * asked again on every attempt.  GroupCommitOrderWriter uses this to keep the date it has
+     * already given an order.
+     */
+    static Orders placeOrder(EntityManager manager, OrderRequest request, Supplier<LocalDateTime> orderDate) {
+        long start = Metrics.start();
+        try {
+            request.validate();
+            Orders order = ContentionRetry.DEFAULT.run(() -> placeOrderOnce(manager, request, orderDate.get()));
+            Metrics.stop(Metrics.ORDER_PLACE, start);
+            Metrics.count(Metrics.ORDERS_PLACED, 1);
+            return order;
+        } catch (RuntimeException e) {
+            Metrics.count(Metrics.ORDERS_FAILED, 1);
+            throw e;
+        }
+    }
+
+    /**
+     * One attempt at placing an order.  Stock for the whole order is reserved with a single
+     * conditional UPDATE, so concurrent orders cannot oversell a product.
+     */
+    private static Orders placeOrderOnce(EntityManager manager, OrderRequest request, LocalDateTime orderDate) {
+        EntityTransaction tx = manager.getTransaction();
+        long beginning = Metrics.start();
+        tx.begin();
+        Metrics.stop(Metrics.TX_BEGIN, beginning);
+        try {
+            Customers customer = manager.find(Customers.class, request.getCustomerId());
+            if (customer == null) {
+                throw new IllegalArgumentException("No customer with ID " + request.getCustomerId());
+            }
+            Set<String> upcs = new LinkedHashSet<>();
+            for (OrderRequest.Line line : request.getLines()) {
+                upcs.add(line.getUpc());
+            }
+            // Read every product in the order with one query, not one per line.
+            Map<String, Products> products = new HashMap<>();
+            long querying = Metrics.start();
+            for (Products product : manager.createNamedQuery("ReturnProductsByUPC", Products.class)
+                    .setParameter("upcs", new ArrayList<>(upcs))
+                    .getResultList()) {
+                products.put(product.getUPC(), product);
+            }
+            Metrics.stop(Metrics.QUERY_RETURN_PRODUCTS_BY_UPC, querying);
+            OrderBuilder order = new OrderBuilder(customer, orderDate, request.getSoldBy());
+            for (OrderRequest.Line line : request.getLines()) {
+                Products product = products.get(line.getUpc());
+                if (product == null) {
+                    throw new IllegalArgumentException("No product with UPC " + line.getUpc());
+                }
+                order.add(product, line.getQuantity());
+            }
+            InventoryReservations.reserveAll(manager, order.getQuantities());
+            order.persist(manager);
+            SalesRollups.record(manager, order);
+            long committing = Metrics.start();
+            tx.commit();
+            Metrics.stop(Metrics.TX_COMMIT, committing);
+            Metrics.count(Metrics.ROWS_WRITTEN, 1 + order.getLines().size());
+            if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Placed: " + order.getOrder());
+            return order.getOrder();
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            // Nothing needs to stay managed between orders, and clearing keeps each worker's
+            // persistence context from growing without bound.
+            manager.clear();
+        }
+    } // End of placeOrder method
+
+    /**
+     * Stop accepting orders, wait for the ones already submitted, and close every worker's
+     * EntityManager.  The EntityManagerFactory belongs to the caller and is left open.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (EntityManager manager : allManagers) {
+            if (manager.isOpen()) manager.close();
+        }
+        allManagers.clear();
+    }
+}
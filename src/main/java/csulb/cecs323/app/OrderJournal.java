@@ -0,0 +1,712 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of orders that have been accepted but may not be in the database yet.
+ * <p>
+ * The journal is a directory of segment files, each segmentSize bytes, memory-mapped and
+ * named after the sequence number of its first entry.  Every entry is one order, written as
+ * </p>
+ * <pre>
+ *     int    length of the body
+ *     int    CRC-32 of the body
+ *     body:  long sequence, long order_date seconds (UTC), int nanos, long customer_id,
+ *            sold_by, int line count, then for each line the UPC and an int quantity
+ * </pre>
+ * <p>
+ * Strings are an int byte count (-1 for null) and that many UTF-8 bytes.  A length of 0 marks
+ * the end of the entries in a segment; a new segment is started when the next entry does not
+ * fit.
+ * </p>
+ * <p>
+ * Appending only copies the entry into the mapped segment, which is memory speed.  The future
+ * that append returns completes once the entry has been forced to disk.  That is done by a
+ * single sync thread, which forces the segment, completes every future that was waiting, and
+ * starts again.  Every entry appended while one force is running is covered by the next, so
+ * the busier the journal is, the more entries share each fsync.  If a force fails, the entries
+ * are still in the segment and may yet reach the disk, so their futures are not failed: they
+ * wait, and the force is tried again, until one succeeds.  Telling a caller that an order
+ * failed when it could still be applied would invite them to place it twice.
+ * </p>
+ * <p>
+ * Opening a journal reads every segment through and checks every entry's CRC.  An entry that
+ * was only partly written when the machine went down can only be at the end of the last
+ * segment; it is cut off there, and its future had not completed, so nobody was told it was
+ * safe.  A bad entry anywhere else means the journal is damaged, and opening fails.  Segments
+ * whose entries have all been applied are deleted by release; the segment being written is
+ * always kept, so the next sequence number is never lost.
+ * </p>
+ * <p>
+ * A new journal is given a random id, kept in the file journal.id next to its segments.  That
+ * id, not the directory's name, is what the database knows the journal by (see
+ * JournaledOrderWriter), so two journals in directories of the same name, or a new journal
+ * where an old one used to be, can never be taken for one another.  A journal that has
+ * segments but no id, or an id that is not a UUID, will not open.
+ * </p>
+ */
+public class OrderJournal implements AutoCloseable {
+    /** The size of each segment file, unless told otherwise. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SUFFIX = ".journal";
+
+    /** The file holding the journal's id. */
+    private static final String ID_FILE = "journal.id";
+
+    /** The length and CRC in front of every entry. */
+    private static final int HEADER_SIZE = 8;
+
+    /** The first and the longest pause before trying a failed force again. */
+    private static final long FIRST_RETRY_MILLIS = 10;
+    private static final long MAX_RETRY_MILLIS = 5000;
+
+    private static final Logger LOGGER = Logger.getLogger(OrderJournal.class.getName());
+
+    private final Path directory;
+    private final int segmentSize;
+
+    /** Set once, by recover. */
+    private String id;
+
+    /** Every segment, by the sequence number of its first entry.  Guarded by this. */
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    /** The segment being appended to.  Guarded by this. */
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /** The sequence number the next entry will get.  Guarded by this. */
+    private long nextSequence;
+
+    /** The order_date given to the last entry, so that no two entries get the same one.  Guarded by this. */
+    private LocalDateTime lastOrderDate = LocalDateTime.MIN;
+
+    /** Appended entries whose futures are waiting for the next force.  Guarded by this. */
+    private List<Waiting> waiting = new ArrayList<>();
+
+    /** The last sequence number known to be on disk.  Guarded by synced for waiting on. */
+    private volatile long syncedThrough;
+    private final Object synced = new Object();
+
+    private final Thread syncer;
+    private boolean closed;
+
+    /** Open (or create) the journal in a directory, with the default segment size. */
+    public static OrderJournal open(Path directory) {
+        return new OrderJournal(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the journal in a directory, creating the directory if need be, and recover it.
+     *
+     * @param directory   Where the segment files live.  Only one journal may use it at a time.
+     * @param segmentSize The size of each segment file.  Also the size limit on one entry.
+     */
+    public OrderJournal(Path directory, int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 1024 bytes, was " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the order journal in " + directory, e);
+        }
+        this.syncer = new Thread(this::sync, "order-journal-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /** @return The journal's name, for messages: its directory. */
+    public String getName() {
+        return directory.toString();
+    }
+
+    /** @return The random id the journal was given when it was created, as a UUID string. */
+    public String getId() {
+        return id;
+    }
+
+    /** @return The sequence number of the last entry appended, or 0 if there has never been one. */
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /** @return The sequence number of the last entry known to be on disk. */
+    public long getSyncedThrough() {
+        return syncedThrough;
+    }
+
+    /**
+     * Append an order, stamped with the current time as its order_date.
+     *
+     * @param request The customer, salesperson and products for the order.
+     * @return A future that completes with the entry's sequence number once the entry is on
+     * disk, or exceptionally if the order fails OrderRequest.validate, or the journal is closed
+     * or cannot be written.
+     */
+    public CompletableFuture<Long> append(OrderRequest request) {
+        try {
+            // Nothing goes in that can never be applied: it would be accepted and then lost.
+            request.validate();
+        } catch (IllegalArgumentException e) {
+            CompletableFuture<Long> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        byte[] soldBy = bytes(request.getSoldBy());
+        List<OrderRequest.Line> lines = request.getLines();
+        byte[][] upcs = new byte[lines.size()][];
+        // sequence, seconds, nanos, customer_id, sold_by, line count
+        int bodySize = 8 + 8 + 4 + 8 + 4 + length(soldBy) + 4;
+        for (int i = 0; i < upcs.length; i++) {
+            upcs[i] = bytes(lines.get(i).getUpc());
+            bodySize += 4 + length(upcs[i]) + 4;
+        }
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (HEADER_SIZE + bodySize + 4 > segmentSize) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "An order of " + bodySize + " bytes does not fit in a " + segmentSize + " byte segment"));
+            return future;
+        }
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("The order journal has been closed"));
+                return future;
+            }
+            try {
+                // Leave room for the 0 that ends the segment.
+                if (buffer.remaining() < HEADER_SIZE + bodySize + 4) roll();
+            } catch (IOException | UncheckedIOException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            long sequence = nextSequence++;
+            LocalDateTime orderDate = nextOrderDate();
+            int start = buffer.position();
+            // The body goes in first and the length last, so that a length is never there
+            // without its body.
+            buffer.position(start + HEADER_SIZE);
+            buffer.putLong(sequence);
+            buffer.putLong(orderDate.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(orderDate.getNano());
+            buffer.putLong(request.getCustomerId());
+            put(buffer, soldBy);
+            buffer.putInt(upcs.length);
+            for (int i = 0; i < upcs.length; i++) {
+                put(buffer, upcs[i]);
+                buffer.putInt(lines.get(i).getQuantity());
+            }
+            buffer.putInt(start + 4, crc(buffer, start + HEADER_SIZE, bodySize));
+            buffer.putInt(start, bodySize);
+            if (waiting.isEmpty()) notifyAll();
+            waiting.add(new Waiting(sequence, future));
+        }
+        Metrics.count(Metrics.ORDERS_JOURNALED, 1);
+        return future;
+    }
+
+    /**
+     * The sync thread: force whatever has been appended, tell everyone waiting for it, repeat.
+     * Appending carries on while the force runs.
+     */
+    private void sync() {
+        long retryMillis = FIRST_RETRY_MILLIS;
+        while (true) {
+            List<Waiting> forcing;
+            MappedByteBuffer segment;
+            long through;
+            synchronized (this) {
+                while (waiting.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (waiting.isEmpty()) return;
+                forcing = waiting;
+                waiting = new ArrayList<>();
+                segment = buffer;
+                through = nextSequence - 1;
+            }
+            long start = Metrics.start();
+            try {
+                // Earlier segments were forced when the next one was started.
+                segment.force();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    // Put them back in front of whatever was appended meanwhile, and try again.
+                    forcing.addAll(waiting);
+                    waiting = forcing;
+                    if (closed) {
+                        // Nobody is told anything: the entries may or may not be on disk, and
+                        // are applied after the next open if they are.
+                        if (LOGGER.isLoggable(Level.SEVERE)) {
+                            LOGGER.log(Level.SEVERE, "Closing journal " + getName() + " with entries up to "
+                                    + through + " that could not be forced", e);
+                        }
+                        return;
+                    }
+                    if (LOGGER.isLoggable(Level.WARNING)) {
+                        LOGGER.log(Level.WARNING, "Cannot force journal " + getName() + "; trying again in "
+                                + retryMillis + " ms", e);
+                    }
+                    try {
+                        wait(retryMillis);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                continue;
+            }
+            retryMillis = FIRST_RETRY_MILLIS;
+            Metrics.stop(Metrics.JOURNAL_SYNC, start);
+            synchronized (synced) {
+                syncedThrough = through;
+                synced.notifyAll();
+            }
+            forcing.forEach(w -> w.future.complete(w.sequence));
+        }
+    } // End of sync method
+
+    /**
+     * Wait until an entry is on disk.
+     *
+     * @return True if it is; false if the time ran out first.
+     */
+    public boolean awaitSynced(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (synced) {
+            while (syncedThrough < sequence) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(synced, wait);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start reading the entries after a given one.
+     *
+     * @param afterSequence The last entry already dealt with, or 0 to read from the start.
+     */
+    public synchronized Reader reader(long afterSequence) {
+        Map.Entry<Long, Path> first = segments.floorEntry(afterSequence + 1);
+        if (first == null) first = segments.firstEntry();
+        if (first.getKey() > afterSequence + 1) {
+            throw new IllegalStateException("Journal " + getName() + " no longer holds entry " + (afterSequence + 1)
+                    + "; its oldest is " + first.getKey());
+        }
+        return new Reader(first.getKey(), afterSequence);
+    }
+
+    /**
+     * Delete the segments whose entries have all been applied.  The segment being appended to
+     * is always kept.
+     *
+     * @param appliedThrough The last entry applied; every entry up to it may be forgotten.
+     */
+    public synchronized void release(long appliedThrough) {
+        while (segments.size() > 1) {
+            Map.Entry<Long, Path> oldest = segments.firstEntry();
+            // The next segment's first entry is one past this segment's last.
+            if (segments.higherKey(oldest.getKey()) - 1 > appliedThrough) break;
+            try {
+                Files.deleteIfExists(oldest.getValue());
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.log(Level.WARNING, "Cannot delete applied journal segment " + oldest.getValue(), e);
+                }
+                break;
+            }
+            segments.remove(oldest.getKey());
+        }
+    }
+
+    /**
+     * Stop accepting entries, force the ones already appended, and close the segment.  If the
+     * force keeps failing, the futures of the entries it covers are left incomplete.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Force the segment being appended to and start a new one.  Called with the lock held.
+     */
+    private void roll() throws IOException {
+        buffer.force();
+        channel.close();
+        startSegment(nextSequence);
+    }
+
+    /** Create and map a new, empty segment whose first entry will be firstSequence. */
+    private void startSegment(long firstSequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d", firstSequence) + SUFFIX);
+        map(path);
+        segments.put(firstSequence, path);
+        // The new file's directory entry must be on disk too, or a crash could lose the segment.
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory; its own file system journal will do.
+        }
+    }
+
+    private void map(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * Read every segment through, cut off a partly written entry at the end, and get ready to
+     * append after the last good entry.
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Not a journal segment: " + file);
+                }
+            }
+        }
+        readId();
+        if (segments.isEmpty()) {
+            nextSequence = 1;
+            startSegment(1);
+            return;
+        }
+        long expected = segments.firstKey();
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            boolean last = segment.getKey().equals(segments.lastKey());
+            if (segment.getKey() != expected) {
+                throw new IllegalStateException("Journal " + getName() + " is missing entries " + expected
+                        + " to " + (segment.getKey() - 1));
+            }
+            map(segment.getValue());
+            int position = 0;
+            while (true) {
+                int length = position + HEADER_SIZE <= segmentSize ? buffer.getInt(position) : 0;
+                if (length == 0) break;
+                Entry entry = length > 0 && position + HEADER_SIZE + length <= segmentSize
+                        && crc(buffer, position + HEADER_SIZE, length) == buffer.getInt(position + 4)
+                        ? decode(buffer, position + HEADER_SIZE) : null;
+                if (entry == null || entry.getSequence() != expected) {
+                    if (!last) {
+                        throw new IllegalStateException("Journal segment " + segment.getValue()
+                                + " is damaged at byte " + position);
+                    }
+                    if (LOGGER.isLoggable(Level.WARNING)) {
+                        LOGGER.warning("Cutting off a partly written entry " + expected + " at byte " + position
+                                + " of " + segment.getValue());
+                    }
+                    zeroFrom(position);
+                    break;
+                }
+                if (entry.getOrderDate().isAfter(lastOrderDate)) lastOrderDate = entry.getOrderDate();
+                expected++;
+                position += HEADER_SIZE + length;
+            }
+            buffer.position(position);
+            if (!last) channel.close();
+        }
+        nextSequence = expected;
+        syncedThrough = expected - 1;
+    } // End of recover method
+
+    /**
+     * Read the journal's id, or give a journal with no segments yet a new one.  The id is on
+     * disk before the first segment is, so a journal with segments always has its id.
+     */
+    private void readId() throws IOException {
+        Path file = directory.resolve(ID_FILE);
+        if (Files.exists(file)) {
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            try {
+                if (UUID.fromString(text).toString().equals(text)) {
+                    id = text;
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // Reported below.
+            }
+            throw new IllegalStateException("Journal " + getName() + " has a damaged id file: " + file);
+        }
+        if (!segments.isEmpty()) {
+            throw new IllegalStateException("Journal " + getName() + " has segments but no id file " + file);
+        }
+        String newId = UUID.randomUUID().toString();
+        Path temporary = directory.resolve(ID_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(newId.getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        id = newId;
+    } // End of readId method
+
+    /**
+     * Zero the current segment from a position up to the first page that is all zeros already.
+     * Entries are appended one after another, so that is the end of anything ever written.  Left
+     * alone, entries past a damaged one that happened to reach the disk could be read as good
+     * once new entries have been written over the damaged one.
+     */
+    private void zeroFrom(int position) {
+        final int page = 4096;
+        for (int start = position; start < segmentSize; start = (start / page + 1) * page) {
+            int end = Math.min((start / page + 1) * page, segmentSize);
+            boolean written = false;
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) != 0) {
+                    buffer.put(i, (byte) 0);
+                    written = true;
+                }
+            }
+            if (!written && start % page == 0) break;
+        }
+        buffer.force();
+    }
+
+    /**
+     * The current time, nudged forward if need be so that it is later than every order date
+     * handed out before.  No customer may have two orders with the same order_date.
+     */
+    private LocalDateTime nextOrderDate() {
+        LocalDateTime now = LocalDateTime.now();
+        lastOrderDate = now.isAfter(lastOrderDate) ? now : lastOrderDate.plusNanos(1000);
+        return lastOrderDate;
+    }
+
+    private static byte[] bytes(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] text) {
+        return text == null ? 0 : text.length;
+    }
+
+    private static void put(ByteBuffer buffer, byte[] text) {
+        if (text == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(text.length);
+            buffer.put(text);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] text = new byte[length];
+        buffer.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buffer, int from, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(from + length).position(from);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /** Read the body of an entry that starts at a given position, without moving the buffer. */
+    private static Entry decode(ByteBuffer buffer, int from) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(from);
+        long sequence = body.getLong();
+        LocalDateTime orderDate = LocalDateTime.ofEpochSecond(body.getLong(), body.getInt(), ZoneOffset.UTC);
+        long customerId = body.getLong();
+        String soldBy = getString(body);
+        int lineCount = body.getInt();
+        List<OrderRequest.Line> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new OrderRequest.Line(getString(body), body.getInt()));
+        }
+        return new Entry(sequence, orderDate, new OrderRequest(customerId, soldBy, lines));
+    }
+
+    /** One order read back from the journal. */
+    public static final class Entry {
+        private final long sequence;
+        private final LocalDateTime orderDate;
+        private final OrderRequest request;
+
+        Entry(long sequence, LocalDateTime orderDate, OrderRequest request) {
+            this.sequence = sequence;
+            this.orderDate = orderDate;
+            this.request = request;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /** @return The order_date the order was given when it was accepted. */
+        public LocalDateTime getOrderDate() {
+            return orderDate;
+        }
+
+        public OrderRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public String toString() {
+            return "Journal entry- Sequence: " + sequence + ", Date: " + orderDate + ", " + request;
+        }
+    }
+
+    /**
+     * Reads entries in sequence order, but only those already on disk, so that nothing is ever
+     * applied that a crash could still take back.  Only one thread may use a reader.
+     */
+    public final class Reader {
+        private long segmentStart;
+        private MappedByteBuffer segment;
+        private int position;
+        private long lastRead;
+
+        private Reader(long segmentStart, long afterSequence) {
+            this.segmentStart = segmentStart;
+            this.lastRead = segmentStart - 1;
+            // Skip the entries of the first segment that were dealt with already.
+            while (lastRead < afterSequence) {
+                if (next() == null) {
+                    throw new IllegalStateException("Journal " + getName() + " has no entry " + afterSequence);
+                }
+            }
+        }
+
+        /** @return The sequence number of the last entry read. */
+        public long getLastRead() {
+            return lastRead;
+        }
+
+        /**
+         * @param max The most entries to read.
+         * @return Up to max of the entries after the last one read that are on disk; empty if
+         * there are none yet.
+         */
+        public List<Entry> read(int max) {
+            List<Entry> entries = new ArrayList<>(Math.min(max, 256));
+            while (entries.size() < max && lastRead < syncedThrough) {
+                entries.add(next());
+            }
+            return entries;
+        }
+
+        /** The next entry, moving on to the next segment when this one has no more. */
+        private Entry next() {
+            if (lastRead >= syncedThrough) return null;
+            if (segment == null) segment = mapForReading(segmentStart);
+            int length = position + HEADER_SIZE <= segmentSize ? segment.getInt(position) : 0;
+            if (length == 0) {
+                segmentStart = lastRead + 1;
+                segment = mapForReading(segmentStart);
+                position = 0;
+                length = segment.getInt(0);
+            }
+            Entry entry = decode(segment, position + HEADER_SIZE);
+            if (entry.getSequence() != lastRead + 1) {
+                throw new IllegalStateException("Journal " + getName() + " has entry " + entry.getSequence()
+                        + " where " + (lastRead + 1) + " should be");
+            }
+            position += HEADER_SIZE + length;
+            lastRead = entry.getSequence();
+            return entry;
+        }
+
+        private MappedByteBuffer mapForReading(long firstSequence) {
+            Path path;
+            synchronized (OrderJournal.this) {
+                path = segments.get(firstSequence);
+            }
+            if (path == null) {
+                throw new IllegalStateException("Journal " + getName() + " has no segment starting at " + firstSequence);
+            }
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                return file.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read journal segment " + path, e);
+            }
+        }
+    }
+
+    /** An appended entry, and the future to complete once it is on disk. */
+    private static class Waiting {
+        final long sequence;
+        final CompletableFuture<Long> future;
+
+        Waiting(long sequence, CompletableFuture<Long> future) {
+            this.sequence = sequence;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves an existing database from the old order key to the surrogate order_id.
+ * <p>
+ * Orders used to be keyed by (customer_id, order_date), and Order_lines by (customer_id,
+ * order_date, product_upc).  Now Orders has an order_id handed out of ID_BLOCKS, and Order_lines
+ * is keyed by (order_id, product_upc).  A database built with StartupMode.REBUILD gets the new
+ * layout for free; one that is kept between runs (StartupMode.VALIDATE) has to be migrated once:
+ * </p>
+ * <pre>
+ *     java -Dcsulb.cecs323.profile=... -cp ... csulb.cecs323.app.OrderKeyMigration
+ * </pre>
+ * <p>
+ * Every existing order is given an id, in order_date order, starting after the ORDERS row of
+ * ID_BLOCKS, and the row is moved past the last id given out.  The order lines pick their order's
+ * id up with one UPDATE, and then the keys are swapped.  (customer_id, order_date) stays unique.
+ * On Derby all of this is one transaction, so a failure leaves the database as it was.  MySQL
+ * commits each ALTER TABLE as it goes, so back the database up first.  Running it on a database
+ * that already has ORDERS.ORDER_ID does nothing.
+ * </p>
+ */
+public class OrderKeyMigration {
+    private static final Logger LOGGER = Logger.getLogger(OrderKeyMigration.class.getName());
+
+    /** How many order ids are written per JDBC batch. */
+    private static final int BATCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final boolean mysql;
+
+    public OrderKeyMigration(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.mysql = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+    }
+
+    public static void main(String[] args) throws SQLException {
+        Map<String, String> properties = PersistenceProfile.fromSystemProperties().getProperties();
+        try (Connection connection = DriverManager.getConnection(
+                properties.get("javax.persistence.jdbc.url"),
+                properties.get("javax.persistence.jdbc.user"),
+                properties.get("javax.persistence.jdbc.password"))) {
+            long migrated = new OrderKeyMigration(connection).migrate();
+            System.out.println(migrated < 0 ? "ORDERS already has ORDER_ID; nothing to do." :
+                    "Gave " + migrated + " orders an ORDER_ID.");
+        }
+    } // End of main method
+
+    /**
+     * Migrate the database, if it still has the old keys.
+     *
+     * @return How many orders were given an id, or -1 if the database was already migrated.
+     */
+    public long migrate() throws SQLException {
+        if (hasColumn("ORDERS", "ORDER_ID")) return -1;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE ORDERS ADD COLUMN ORDER_ID BIGINT");
+            long numbered = numberOrders();
+
+            statement.executeUpdate("ALTER TABLE ORDER_LINES ADD COLUMN ORDER_ID BIGINT");
+            statement.executeUpdate("UPDATE ORDER_LINES SET ORDER_ID = " +
+                    "(SELECT o.ORDER_ID FROM ORDERS o " +
+                    "WHERE o.CUSTOMER_ID = ORDER_LINES.CUSTOMER_ID AND o.ORDER_DATE = ORDER_LINES.ORDER_DATE)");
+
+            // The old keys go first: the foreign key from ORDER_LINES depends on the ORDERS key.
+            for (String foreignKey : foreignKeys("ORDER_LINES", "ORDERS")) {
+                statement.executeUpdate("ALTER TABLE ORDER_LINES DROP FOREIGN KEY " + foreignKey);
+            }
+            statement.executeUpdate("ALTER TABLE ORDER_LINES DROP PRIMARY KEY");
+            statement.executeUpdate("ALTER TABLE ORDERS DROP PRIMARY KEY");
+
+            statement.executeUpdate(notNull("ORDERS", "ORDER_ID"));
+            statement.executeUpdate("ALTER TABLE ORDERS ADD PRIMARY KEY (ORDER_ID)");
+            statement.executeUpdate("ALTER TABLE ORDERS ADD CONSTRAINT ORDERS_CUSTOMER_DATE " +
+                    "UNIQUE (CUSTOMER_ID, ORDER_DATE)");
+
+            statement.executeUpdate("ALTER TABLE ORDER_LINES DROP COLUMN CUSTOMER_ID");
+            statement.executeUpdate("ALTER TABLE ORDER_LINES DROP COLUMN ORDER_DATE");
+            statement.executeUpdate(notNull("ORDER_LINES", "ORDER_ID"));
+            statement.executeUpdate("ALTER TABLE ORDER_LINES ADD PRIMARY KEY (ORDER_ID, PRODUCT_UPC)");
+            statement.executeUpdate("ALTER TABLE ORDER_LINES ADD CONSTRAINT ORDER_LINES_ORDER_ID " +
+                    "FOREIGN KEY (ORDER_ID) REFERENCES ORDERS (ORDER_ID)");
+
+            connection.commit();
+            return numbered;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    } // End of migrate method
+
+    /**
+     * Give every order an id, in order_date order, and move the ORDERS row of ID_BLOCKS past them.
+     *
+     * @return How many orders were numbered.
+     */
+    private long numberOrders() throws SQLException {
+        long next = reserveIds();
+        List<Object[]> keys = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(
+                     "SELECT CUSTOMER_ID, ORDER_DATE FROM ORDERS ORDER BY ORDER_DATE, CUSTOMER_ID")) {
+            while (rows.next()) {
+                keys.add(new Object[]{rows.getLong(1), rows.getTimestamp(2)});
+            }
+        }
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE ORDERS SET ORDER_ID = ? WHERE CUSTOMER_ID = ? AND ORDER_DATE = ?")) {
+            int pending = 0;
+            for (Object[] key : keys) {
+                update.setLong(1, ++next);
+                update.setLong(2, (Long) key[0]);
+                update.setTimestamp(3, (Timestamp) key[1]);
+                update.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    update.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) update.executeBatch();
+        }
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE ID_BLOCKS SET NEXT_ID = ? WHERE SEQ_NAME = 'ORDERS'")) {
+            update.setLong(1, next);
+            update.executeUpdate();
+        }
+        if (LOGGER.isLoggable(Level.INFO)) LOGGER.info("Numbered " + keys.size() + " orders up to " + next);
+        return keys.size();
+    }
+
+    /**
+     * The value of the ORDERS row of ID_BLOCKS, creating the row if the database predates it.
+     * EclipseLink hands out ids after this value, and numberOrders does the same.
+     */
+    private long reserveIds() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery("SELECT NEXT_ID FROM ID_BLOCKS WHERE SEQ_NAME = 'ORDERS'")) {
+            if (row.next()) return row.getLong(1);
+            statement.executeUpdate("INSERT INTO ID_BLOCKS (SEQ_NAME, NEXT_ID) VALUES ('ORDERS', 0)");
+            return 0;
+        }
+    }
+
+    private String notNull(String table, String column) {
+        return mysql ? "ALTER TABLE " + table + " MODIFY " + column + " BIGINT NOT NULL"
+                : "ALTER TABLE " + table + " ALTER COLUMN " + column + " NOT NULL";
+    }
+
+    private boolean hasColumn(String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // Derby folds unquoted names to upper case and MySQL keeps them as written, so try both.
+        for (String name : new String[]{table, table.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet rows = metaData.getColumns(null, null, name, null)) {
+                while (rows.next()) {
+                    if (rows.getString("COLUMN_NAME").equalsIgnoreCase(column)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** The names of the foreign keys from one table to another. */
+    private List<String> foreignKeys(String table, String referenced) throws SQLException {
+        List<String> names = new ArrayList<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[]{table, table.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet rows = metaData.getImportedKeys(null, null, name)) {
+                while (rows.next()) {
+                    String fk = rows.getString("FK_NAME");
+                    if (rows.getString("PKTABLE_NAME").equalsIgnoreCase(referenced) && !names.contains(fk)) {
+                        names.add(fk);
+                    }
+                }
+            }
+            if (!names.isEmpty()) break;
+        }
+        return names;
+    }
+}
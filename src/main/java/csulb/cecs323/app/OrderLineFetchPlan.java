@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Order_lines;
+import org.eclipse.persistence.annotations.BatchFetchType;
+import org.eclipse.persistence.config.QueryHints;
+
+import javax.persistence.Query;
+import java.util.Locale;
+
+/**
+ * How a query for Order_lines reads the orders, customers and products that the lines point to.
+ * <p>
+ * Order_lines.order, Order_lines.product and Orders.customer are all lazy, so by default a line
+ * arrives with none of them, and each one is read with its own SELECT the first time it is
+ * touched.  That is right when they are not needed, and the classic N+1 problem when they are:
+ * a report that prints the customer of 100,000 lines would run a couple of hundred thousand
+ * queries.  A fetch plan tells EclipseLink to read them up front instead.  Pick one with the
+ * {@value #PROPERTY} property, or pass one to Listings.orderLines.
+ * </p>
+ */
+public enum OrderLineFetchPlan {
+    /** Read nothing up front; each order, customer and product is read when it is first used. */
+    LAZY,
+
+    /**
+     * Read each line's order, customer and product in the same SELECT, with joins.  One query in
+     * all, though the order and customer columns are repeated on every line of the order.  This
+     * is the default: on embedded Derby it is as fast as BATCH, and about twice as fast as LAZY.
+     */
+    JOIN,
+
+    /**
+     * Read the lines, then the orders, customers and products they point to with one
+     * SELECT ... WHERE key IN (...) per {@value #BATCH_SIZE} of them: a couple of hundred queries
+     * for 100,000 lines, rather than one per line, with every row read only once.  Over a network
+     * this can beat JOIN when many lines share the same few customers and products.
+     */
+    BATCH;
+
+    /** The property that picks the plan: lazy, join or batch. */
+    public static final String PROPERTY = "csulb.cecs323.fetch-plan";
+
+    /**
+     * The most keys in one batch fetch IN list.  Embedded Derby takes around eight times as long
+     * to resolve 5,000 orders' lines in IN lists of 500 keys as in lists of 100.
+     */
+    public static final int BATCH_SIZE = 100;
+
+    /** The relationships a plan fetches, as paths from the line. */
+    private static final String[] GRAPH = {"l.order", "l.order.customer", "l.product"};
+
+    /**
+     * @param value The value of the {@value #PROPERTY} property, or null.
+     * @return The plan it names; JOIN if it is null.
+     */
+    public static OrderLineFetchPlan parse(String value) {
+        if (value == null) return JOIN;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(PROPERTY + " must be lazy, join or batch, was " + value);
+        }
+    }
+
+    /** @return The plan named by the {@value #PROPERTY} system property, or JOIN. */
+    public static OrderLineFetchPlan fromSystemProperties() {
+        return parse(System.getProperty(PROPERTY));
+    }
+
+    /**
+     * Set the hints for this plan on a query.
+     *
+     * @param query A JPQL query for {@link Order_lines}, whose lines are named l.
+     * @return The same query.
+     */
+    public <Q extends Query> Q apply(Q query) {
+        for (String path : GRAPH) {
+            if (this == JOIN) {
+                query.setHint(QueryHints.FETCH, path);
+            } else if (this == BATCH) {
+                query.setHint(QueryHints.BATCH, path);
+            }
+        }
+        if (this == BATCH) {
+            // IN rather than a join back to the lines' own query, which also works through a cursor.
+            query.setHint(QueryHints.BATCH_TYPE, BatchFetchType.IN);
+            query.setHint(QueryHints.BATCH_SIZE, BATCH_SIZE);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Orders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything that the clerk types in at the prompts in CustomerOrders.main, but as plain data so
+ * that an order can be placed without a Scanner: who is buying, who sold it, and which products
+ * (by UPC) in what quantities.
+ */
+public class OrderRequest {
+    /** The customer_id of the customer placing the order. */
+    private final long customerId;
+    /** The name of the salesperson processing the sale. */
+    private final String soldBy;
+    /** The products in the order, in the order that they were added. */
+    private final List<Line> lines;
+
+    public OrderRequest(long customerId, String soldBy, List<Line> lines) {
+        if (lines == null || lines.isEmpty()) {
+            throw new IllegalArgumentException("An order needs at least one line");
+        }
+        this.customerId = customerId;
+        this.soldBy = soldBy;
+        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public String getSoldBy() {
+        return soldBy;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    /**
+     * Check everything about the order that does not need the database: that there is a
+     * salesperson whose name fits in Orders.sold_by, that every line has a UPC, and that the
+     * quantities of any one UPC add up to no more than an int holds.  An order that passes can
+     * still be turned down for an unknown customer or product, or for want of stock.
+     * <p>
+     * Not done by the constructor, because OrderJournal reads back entries written before these
+     * checks existed, and must still be able to pass a bad one over.
+     * </p>
+     *
+     * @return This request.
+     * @throws IllegalArgumentException If the order can never be placed.
+     */
+    public OrderRequest validate() {
+        if (soldBy == null || soldBy.trim().isEmpty()) {
+            throw new IllegalArgumentException("An order needs the name of the salesperson");
+        }
+        if (soldBy.codePointCount(0, soldBy.length()) > Orders.SOLD_BY_LENGTH) {
+            throw new IllegalArgumentException("The salesperson's name is longer than "
+                    + Orders.SOLD_BY_LENGTH + " characters");
+        }
+        Map<String, Long> quantities = new HashMap<>();
+        for (Line line : lines) {
+            if (line.upc == null) {
+                throw new IllegalArgumentException("Every line needs a UPC");
+            }
+            long total = quantities.merge(line.upc, (long) line.quantity, Long::sum);
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many of " + line.upc + " in one order: " + total);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Order request- Customer: " + customerId + ", Sold by: " + soldBy + ", Lines: " + lines;
+    }
+
+    /** One product, and how many of it, within an OrderRequest. */
+    public static class Line {
+        private final String upc;
+        private final int quantity;
+
+        public Line(String upc, int quantity) {
+            if (quantity < 1) {
+                throw new IllegalArgumentException("Quantity must be at least 1, was " + quantity);
+            }
+            this.upc = upc;
+            this.quantity = quantity;
+        }
+
+        public String getUpc() {
+            return upc;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        @Override
+        public String toString() {
+            return upc + " x " + quantity;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A named set of connection and tuning settings for the CustomerOrders persistence unit, so the
+ * same build can run against embedded Derby, a Derby network server or MySQL, and be tuned,
+ * without editing persistence.xml.
+ * <p>
+ * A profile is a properties file of persistence unit properties.  The built-in profiles are in
+ * src/main/resources/profiles: derby-embedded (the default), derby-network and mysql.  They set
+ * </p>
+ * <ul>
+ *     <li>the JDBC driver, URL and credentials,</li>
+ *     <li>the size of EclipseLink's connection pool (eclipselink.connection-pool.default.*),</li>
+ *     <li>the prepared statement cache (eclipselink.jdbc.cache-statements*),</li>
+ *     <li>the JDBC batch size for writes (eclipselink.jdbc.batch-writing.size), and</li>
+ *     <li>the JDBC fetch size for reads ({@value SessionTuningCustomizer#FETCH_SIZE}).</li>
+ * </ul>
+ * <p>
+ * Values may refer to system properties or environment variables as ${name} or
+ * ${name:default}, which keeps passwords out of the file.  System properties whose names start
+ * with javax.persistence., eclipselink. or csulb.cecs323. override whatever the profile says.
+ * </p>
+ */
+public class PersistenceProfile {
+    /** The system property that picks a profile, by name or by the path of a file. */
+    public static final String PROFILE = "csulb.cecs323.profile";
+
+    /** The profile used when none is picked. */
+    public static final String DEFAULT_PROFILE = "derby-embedded";
+
+    /** The name of the persistence unit in persistence.xml. */
+    public static final String PERSISTENCE_UNIT = "CustomerOrders";
+
+    private static final String[] OVERRIDABLE = {"javax.persistence.", "eclipselink.", "csulb.cecs323."};
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}:]+)(?::([^}]*))?}");
+
+    private final String name;
+    private final Map<String, String> properties;
+
+    private PersistenceProfile(String name, Map<String, String> properties) {
+        this.name = name;
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * The profile named by the {@value #PROFILE} system property, or {@value #DEFAULT_PROFILE}
+     * if it is not set.
+     */
+    public static PersistenceProfile fromSystemProperties() {
+        return load(System.getProperty(PROFILE, DEFAULT_PROFILE));
+    }
+
+    /**
+     * Load a profile.
+     *
+     * @param profile The name of a built-in profile, or the path of a properties file.
+     * @return The profile, with placeholders filled in and system property overrides applied.
+     */
+    public static PersistenceProfile load(String profile) {
+        Properties raw = new Properties();
+        Path file = Paths.get(profile);
+        try {
+            if (Files.isRegularFile(file)) {
+                try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    raw.load(in);
+                }
+            } else {
+                try (InputStream in = PersistenceProfile.class.getClassLoader()
+                        .getResourceAsStream("profiles/" + profile + ".properties")) {
+                    if (in == null) {
+                        throw new IllegalArgumentException("No persistence profile named " + profile +
+                                "; use derby-embedded, derby-network, mysql or the path of a properties file");
+                    }
+                    raw.load(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read persistence profile " + profile, e);
+        }
+        Map<String, String> properties = new TreeMap<>();
+        for (String key : raw.stringPropertyNames()) {
+            properties.put(key, resolve(key, raw.getProperty(key)));
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            for (String prefix : OVERRIDABLE) {
+                if (key.startsWith(prefix) && !key.equals(PROFILE)) {
+                    properties.put(key, System.getProperty(key));
+                }
+            }
+        }
+        return new PersistenceProfile(profile, properties);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return Every property the profile sets, in name order. */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /** @return The startup mode the profile (or -D{@value StartupMode#PROPERTY}) asks for. */
+    public StartupMode getStartupMode() {
+        return StartupMode.parse(properties.get(StartupMode.PROPERTY));
+    }
+
+    /**
+     * Build the EntityManagerFactory for the CustomerOrders persistence unit, with this profile's
+     * properties overriding those in persistence.xml.  In StartupMode.VALIDATE the schema is
+     * left as it is and checked by SchemaValidator before the factory is returned.
+     */
+    public EntityManagerFactory createEntityManagerFactory() {
+        StartupMode mode = getStartupMode();
+        // Anything the profile sets explicitly wins over the mode's defaults.
+        Map<String, String> effective = new TreeMap<>(mode.getOverrides());
+        effective.putAll(properties);
+        EntityManagerFactory factory = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT, effective);
+        if (mode == StartupMode.VALIDATE) {
+            try {
+                SchemaValidator.validate(factory);
+            } catch (RuntimeException e) {
+                factory.close();
+                throw e;
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Fill in the ${name} and ${name:default} placeholders in one value.
+     */
+    private static String resolve(String key, String value) {
+        Matcher matcher = PLACEHOLDER.matcher(value);
+        StringBuffer resolved = new StringBuffer();
+        while (matcher.find()) {
+            String replacement = System.getProperty(matcher.group(1), System.getenv(matcher.group(1)));
+            if (replacement == null) replacement = matcher.group(2);
+            if (replacement == null) {
+                throw new IllegalArgumentException("Persistence profile property " + key + " needs ${" +
+                        matcher.group(1) + "}; set it as a system property or environment variable");
+            }
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    @Override
+    public String toString() {
+        Map<String, String> shown = new TreeMap<>(properties);
+        shown.computeIfPresent("javax.persistence.jdbc.password", (key, value) -> "****");
+        return "Persistence profile- Name: " + name + ", Properties: " + shown;
+    }
+}
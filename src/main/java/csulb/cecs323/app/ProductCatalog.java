@@ -0,0 +1,299 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+import csulb.cecs323.model.ProductChanges;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+
+import javax.persistence.EntityManager;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A read-through cache of Products, indexed by UPC.
+ * <p>
+ * The prompts in CustomerOrders look products up over and over while the clerk builds an order.
+ * Rather than go back to the database (and scan the whole product list) every time, lookups go
+ * through this catalog: a hash map from UPC to product, so a hit is O(1).  A miss loads the one
+ * product by its primary key.  The full listing is cached as well, and loading it fills the
+ * index too.
+ * </p>
+ * <p>
+ * Entries are thrown away when they are older than the time to live, when the catalog holds more
+ * than maxSize products (least recently used first), and whenever ProductChanges reports that a
+ * product's price or stock changed.  Call close() when done with a catalog so it stops listening.
+ * </p>
+ */
+public class ProductCatalog implements AutoCloseable {
+    /** The most products a catalog holds when no size is given. */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    /** The most UPCs put into a single IN list by getAll. */
+    public static final int BATCH_SIZE = 500;
+
+    /** How long a catalog entry is trusted when no time to live is given. */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    /**
+     * Query hints that make EclipseLink read the row even when the EntityManager already has the
+     * product, since stock changed with SQL never shows up in the EntityManager's copy.
+     */
+    private static final Map<String, Object> READ_FROM_DATABASE =
+            Collections.singletonMap(QueryHints.REFRESH, HintValues.TRUE);
+
+    /** Where products are loaded from on a miss. */
+    private final EntityManager entityManager;
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    /** UPC to cached product, in least recently used order. */
+    private final LinkedHashMap<String, CachedProduct> byUpc;
+
+    /** The cached result of the full listing, or null if it is not cached. */
+    private List<Products> listing;
+    private long listingLoadedAt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Our subscription to ProductChanges. */
+    private final Consumer<String> invalidator = this::invalidate;
+
+    public ProductCatalog(EntityManager manager) {
+        this(manager, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param manager The EntityManager to load products through.
+     * @param maxSize The most products to keep.
+     * @param ttl     How long to trust a cached product before reading it again.
+     */
+    public ProductCatalog(EntityManager manager, int maxSize, Duration ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1, was " + maxSize);
+        }
+        this.entityManager = manager;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.byUpc = new LinkedHashMap<String, CachedProduct>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedProduct> eldest) {
+                if (size() > ProductCatalog.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        ProductChanges.addListener(invalidator);
+    }
+
+    /**
+     * Look up one product.
+     *
+     * @param upc The UPC of the product.
+     * @return The product, or null if there is no product with that UPC.
+     */
+    public synchronized Products get(String upc) {
+        CachedProduct entry = byUpc.get(upc);
+        if (entry != null && !isExpired(entry.loadedAt)) {
+            hit();
+            return entry.product;
+        }
+        miss();
+        long start = Metrics.start();
+        Products product = entityManager.find(Products.class, upc, READ_FROM_DATABASE);
+        Metrics.stop(Metrics.QUERY_RETURN_PRODUCT, start);
+        if (product != null) {
+            byUpc.put(upc, new CachedProduct(product, System.nanoTime()));
+        } else if (entry != null) {
+            byUpc.remove(upc);
+        }
+        return product;
+    }
+
+    /**
+     * Look up many products at once, for example every line of a cart.  Products already in the
+     * catalog are answered from it; the rest are read together, with one IN-list query per
+     * BATCH_SIZE UPCs, rather than one query per product.
+     *
+     * @param upcs The UPCs to look up.  Duplicates are fine.
+     * @return The products found, keyed by UPC.  UPCs with no product are left out.
+     */
+    public synchronized Map<String, Products> getAll(Collection<String> upcs) {
+        Map<String, Products> found = new LinkedHashMap<>();
+        Set<String> wanted = new LinkedHashSet<>(upcs);
+        List<String> missing = new ArrayList<>();
+        for (String upc : wanted) {
+            CachedProduct entry = byUpc.get(upc);
+            if (entry != null && !isExpired(entry.loadedAt)) {
+                hit();
+                found.put(upc, entry.product);
+            } else {
+                miss();
+                missing.add(upc);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += BATCH_SIZE) {
+            List<String> batch = missing.subList(from, Math.min(from + BATCH_SIZE, missing.size()));
+            long start = Metrics.start();
+            List<Products> products = entityManager.createNamedQuery("ReturnProductsByUPC", Products.class)
+                    .setParameter("upcs", batch)
+                    .setHint(QueryHints.REFRESH, HintValues.TRUE)
+                    .getResultList();
+            Metrics.stop(Metrics.QUERY_RETURN_PRODUCTS_BY_UPC, start);
+            long now = System.nanoTime();
+            for (Products product : products) {
+                byUpc.put(product.getUPC(), new CachedProduct(product, now));
+                found.put(product.getUPC(), product);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Every product in the database.  The list is cached as long as it fits in the catalog.
+     *
+     * @return All of the products, possibly empty, never null.
+     */
+    public synchronized List<Products> all() {
+        if (listing != null && !isExpired(listingLoadedAt)) {
+            hit();
+            return listing;
+        }
+        miss();
+        long start = Metrics.start();
+        List<Products> products = entityManager.createNamedQuery("ReturnProducts", Products.class)
+                .setHint(QueryHints.REFRESH, HintValues.TRUE)
+                .getResultList();
+        Metrics.stop(Metrics.QUERY_RETURN_PRODUCTS, start);
+        long now = System.nanoTime();
+        for (Products product : products) {
+            byUpc.put(product.getUPC(), new CachedProduct(product, now));
+        }
+        if (products.size() <= maxSize) {
+            listing = Collections.unmodifiableList(new ArrayList<>(products));
+            listingLoadedAt = now;
+        } else {
+            listing = null;
+        }
+        return products;
+    }
+
+    /**
+     * Print every product, one per line.  If the whole catalog fits in maxSize it is listed
+     * through all(), so that it is cached for next time.  Otherwise product summaries are
+     * streamed from the database and printed one at a time, so a catalog far bigger than the
+     * cache can still be printed without reading it all into memory or building any entities.
+     *
+     * @param out Where to print the products.
+     */
+    public synchronized void print(PrintStream out) {
+        boolean fits = listing != null && !isExpired(listingLoadedAt) ||
+                entityManager.createNamedQuery("CountProducts", Long.class).getSingleResult() <= maxSize;
+        if (fits) {
+            for (Products product : all()) {
+                out.println(product);
+            }
+        } else {
+            miss();
+            Listings.print(Listings.streamProductSummaries(entityManager, Listings.DEFAULT_FETCH_SIZE), out);
+        }
+    }
+
+    /** Forget one product, so that the next lookup reads it from the database. */
+    public synchronized void invalidate(String upc) {
+        byUpc.remove(upc);
+        listing = null;
+    }
+
+    /** Forget everything. */
+    public synchronized void invalidateAll() {
+        byUpc.clear();
+        listing = null;
+    }
+
+    public synchronized int size() {
+        return byUpc.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return The fraction of lookups answered from the cache, 0 if there have been none. */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public void close() {
+        ProductChanges.removeListener(invalidator);
+    }
+
+    @Override
+    public String toString() {
+        return "Product catalog- Size: " + size() + ", Hits: " + hits + ", Misses: " + misses +
+                ", Evictions: " + evictions;
+    }
+
+    private void hit() {
+        hits.incrementAndGet();
+        Metrics.count(Metrics.CATALOG_HITS, 1);
+    }
+
+    private void miss() {
+        misses.incrementAndGet();
+        Metrics.count(Metrics.CATALOG_MISSES, 1);
+    }
+
+    private boolean isExpired(long loadedAt) {
+        return System.nanoTime() - loadedAt > ttlNanos;
+    }
+
+    /** A cached product and when we read it. */
+    private static class CachedProduct {
+        final Products product;
+        final long loadedAt;
+
+        CachedProduct(Products product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Money;
+
+/**
+ * Just enough of a product to list it: the UPC, name, price and stock on hand.
+ * <p>
+ * Built by Listings from the rows of the native ReturnProductSummariesAfter query, so no
+ * Products entity is created, cached or tracked for changes, and the manufacturer and model
+ * are never read.  The stock is as of the query; reserve stock through InventoryReservations,
+ * never from a summary.
+ */
+public final class ProductSummary {
+    private final String upc;
+    private final String name;
+    private final Money price;
+    private final int unitsInStock;
+
+    public ProductSummary(String upc, String name, Money price, int unitsInStock) {
+        this.upc = upc;
+        this.name = name;
+        this.price = price;
+        this.unitsInStock = unitsInStock;
+    }
+
+    public String getUPC() {
+        return upc;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Money getPrice() {
+        return price;
+    }
+
+    public int getUnitsInStock() {
+        return unitsInStock;
+    }
+
+    /** The same text as Products.toString, so a listing reads the same either way. */
+    @Override
+    public String toString() {
+        return "Product- UPC: " + upc + ", Name: " + name + ", Price: " + price + " QTY on hand: " + unitsInStock;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.metrics.Metrics;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * Sales reports over Orders and Order_lines: revenue per product, per salesperson, per customer
+ * and per day.
+ * <p>
+ * Every report is one of the Sales* named native queries on Order_lines, so the SQL is parsed
+ * once when the persistence unit starts, and the database does the grouping and summing.  Only
+ * the totals come back, as SalesTotal rows; no Orders or Order_lines are ever built.  There are
+ * three ways to run one:
+ * </p>
+ * <ul>
+ *     <li>stream: the rows are read through a cursor, fetchSize at a time, so a report with
+ *     millions of keys (per customer, say) never has to fit in memory.  Close the stream.</li>
+ *     <li>report: the whole report as a list, in key order: customers by customer_id as a
+ *     number, everything else alphabetically (which for days is also date order).</li>
+ *     <li>report with partitions: the time range is cut into that many equal slices, each slice
+ *     is run as its own query on its own EntityManager in a ForkJoinPool, and the slices'
+ *     totals are added together.  An order falls in exactly one slice, so nothing is counted
+ *     twice.  With enough cores (and a database that can use them, which embedded Derby does
+ *     one query per connection) a long range finishes in a fraction of the time.</li>
+ * </ul>
+ */
+public class SalesReports {
+    /** What a report is totalled by, and the named query that does it. */
+    public enum Dimension {
+        PRODUCT("SalesByProduct", Comparator.naturalOrder()),
+        SALESPERSON("SalesBySalesperson", Comparator.naturalOrder()),
+        CUSTOMER("SalesByCustomer", Comparator.comparingLong(Long::parseLong)),
+        DAY("SalesByDay", Comparator.naturalOrder());
+
+        private final String queryName;
+        private final Comparator<String> keyOrder;
+
+        Dimension(String queryName, Comparator<String> keyOrder) {
+            this.queryName = queryName;
+            this.keyOrder = keyOrder;
+        }
+
+        public String getQueryName() {
+            return queryName;
+        }
+
+        /** @return The order report puts the keys in. */
+        public Comparator<String> getKeyOrder() {
+            return keyOrder;
+        }
+    }
+
+    private final EntityManagerFactory factory;
+
+    public SalesReports(EntityManagerFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Print a report.  Arguments: product|salesperson|customer|day, then optionally the first
+     * and the last day (yyyy-mm-dd, both included; everything by default) and how many
+     * partitions to run in parallel (one per processor by default).
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: SalesReports product|salesperson|customer|day [from-day to-day [partitions]]");
+            System.exit(2);
+        }
+        Dimension by = Dimension.valueOf(args[0].toUpperCase(Locale.ROOT));
+        LocalDateTime from = args.length > 1 ? LocalDate.parse(args[1]).atStartOfDay() : LocalDateTime.of(1970, 1, 1, 0, 0);
+        LocalDateTime to = args.length > 2 ? LocalDate.parse(args[2]).plusDays(1).atStartOfDay()
+                : LocalDateTime.now().plusDays(1);
+        int partitions = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
+        try {
+            for (SalesTotal total : new SalesReports(factory).report(by, from, to, partitions, ForkJoinPool.commonPool())) {
+                System.out.println(total);
+            }
+        } finally {
+            factory.close();
+        }
+    } // End of main method
+
+    /**
+     * Stream one report.
+     *
+     * @param manager   The EntityManager to read through.  It must stay open until the stream is closed.
+     * @param by        What to total by.
+     * @param from      The first order_date included.
+     * @param to        The first order_date after the report (exclusive).
+     * @param fetchSize How many rows are read per round trip.
+     * @return The totals, in no particular order.
+     */
+    public static Stream<SalesTotal> stream(EntityManager manager, Dimension by,
+                                            LocalDateTime from, LocalDateTime to, int fetchSize) {
+        Stream<Object[]> rows = Listings.stream(manager.createNamedQuery(by.getQueryName())
+                .setParameter(1, Timestamp.valueOf(from))
+                .setParameter(2, Timestamp.valueOf(to)), fetchSize);
+        return rows.map(SalesReports::toTotal);
+    }
+
+    /**
+     * Run one report on a single connection.
+     *
+     * @return The totals, in key order.
+     */
+    public List<SalesTotal> report(Dimension by, LocalDateTime from, LocalDateTime to) {
+        return report(by, from, to, 1, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Run one report as partitions slices of the time range, in parallel.
+     *
+     * @param by         What to total by.
+     * @param from       The first order_date included.
+     * @param to         The first order_date after the report (exclusive).
+     * @param partitions How many slices to cut [from, to) into; 1 runs a single query here.
+     * @param pool       Where the slices run.
+     * @return The totals, in key order.
+     */
+    public List<SalesTotal> report(Dimension by, LocalDateTime from, LocalDateTime to,
+                                   int partitions, ForkJoinPool pool) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1, was " + partitions);
+        }
+        if (!from.isBefore(to)) return new ArrayList<>();
+        long start = Metrics.start();
+        Map<String, SalesTotal> totals;
+        if (partitions == 1) {
+            totals = runSlice(by, from, to);
+        } else {
+            totals = new TreeMap<>(by.getKeyOrder());
+            List<ForkJoinTask<Map<String, SalesTotal>>> slices = new ArrayList<>(partitions);
+            for (LocalDateTime[] slice : slices(from, to, partitions)) {
+                slices.add(pool.submit(() -> runSlice(by, slice[0], slice[1])));
+            }
+            for (ForkJoinTask<Map<String, SalesTotal>> slice : slices) {
+                try {
+                    for (SalesTotal total : slice.get().values()) {
+                        totals.merge(total.getKey(), total, SalesTotal::plus);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while running " + by + " report", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Could not run " + by + " report", e.getCause());
+                }
+            }
+        }
+        Metrics.stop(Metrics.REPORT, start);
+        return new ArrayList<>(totals.values());
+    } // End of report method
+
+    /** Run the report over one slice of time, on an EntityManager of its own. */
+    private Map<String, SalesTotal> runSlice(Dimension by, LocalDateTime from, LocalDateTime to) {
+        Map<String, SalesTotal> totals = new TreeMap<>(by.getKeyOrder());
+        EntityManager manager = factory.createEntityManager();
+        try (Stream<SalesTotal> rows = stream(manager, by, from, to, Listings.DEFAULT_FETCH_SIZE)) {
+            Iterator<SalesTotal> it = rows.iterator();
+            while (it.hasNext()) {
+                SalesTotal total = it.next();
+                totals.put(total.getKey(), total);
+            }
+        } finally {
+            manager.close();
+        }
+        return totals;
+    }
+
+    /** Cut [from, to) into partitions slices of equal length; the last one ends exactly at to. */
+    static List<LocalDateTime[]> slices(LocalDateTime from, LocalDateTime to, int partitions) {
+        long nanos = Duration.between(from, to).toNanos();
+        List<LocalDateTime[]> slices = new ArrayList<>(partitions);
+        LocalDateTime start = from;
+        for (int i = 1; i <= partitions; i++) {
+            LocalDateTime end = i == partitions ? to : from.plusNanos(nanos / partitions * i);
+            if (end.isAfter(start)) slices.add(new LocalDateTime[]{start, end});
+            start = end;
+        }
+        return slices;
+    }
+
+    /** One row of a Sales* query: key, units, revenue in dollars, lines. */
+    private static SalesTotal toTotal(Object[] row) {
+        BigDecimal revenue = (BigDecimal) row[2];
+        return new SalesTotal(String.valueOf(row[0]), ((Number) row[1]).longValue(),
+                revenue.movePointRight(2).longValueExact(), ((Number) row[3]).longValue());
+    }
+}
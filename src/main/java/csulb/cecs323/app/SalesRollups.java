@@ -0,0 +1,320 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Money;
+import csulb.cecs323.model.Order_lines;
+import csulb.cecs323.model.Product_sales;
+import csulb.cecs323.model.Salesperson_sales;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps running sales totals per product (Product_sales) and per salesperson (Salesperson_sales)
+ * so that a dashboard can read them with one primary key lookup, rather than a SalesReports query
+ * that has to add up every order line ever written.
+ * <p>
+ * The totals are kept up to date in the same transaction that commits each order: record is
+ * called after the order has been persisted and before the commit, and adds the order's units,
+ * revenue and one order to each of its products and to its salesperson.  Either the order and
+ * its totals both commit or neither does, so the rollups can never count an order that is not
+ * there, or miss one that is.  Each addition is a single UPDATE ... SET UNITS = UNITS + ?, sent
+ * in one JDBC batch per table; only the first sale of a product or by a salesperson needs an
+ * INSERT as well.
+ * </p>
+ * <p>
+ * The price is that a salesperson's row is locked from their order's record until its commit,
+ * so two orders taken by the same salesperson commit one after the other.  A product's row is
+ * no worse off: InventoryReservations has already locked its stock for the same span.  Rows are
+ * always updated products first, then salespeople, each in key order, like the stock, so two
+ * orders can never deadlock on them.  GroupCommitOrderWriter records a whole group at once,
+ * which also means one UPDATE per product and salesperson per group rather than per order.
+ * </p>
+ * <p>
+ * Anything that writes orders some other way (SeedImporter, SQL by hand) leaves the totals
+ * behind.  rebuild works them out again from scratch, and check compares them with the orders
+ * without changing anything; run either with main.
+ * </p>
+ */
+public class SalesRollups {
+    /** SQLState class 23: integrity constraint violation, here somebody else's INSERT of the same key. */
+    private static final String INTEGRITY_CONSTRAINT = "23";
+
+    private final EntityManagerFactory factory;
+
+    public SalesRollups(EntityManagerFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Rebuild or check the totals.  Argument: rebuild, check or show.  check exits with status 1
+     * if the totals do not match the orders.
+     */
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0].toLowerCase(Locale.ROOT) : "";
+        if (!Arrays.asList("rebuild", "check", "show").contains(command)) {
+            System.err.println("Usage: SalesRollups rebuild|check|show");
+            System.exit(2);
+        }
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
+        int status = 0;
+        try {
+            SalesRollups rollups = new SalesRollups(factory);
+            if (command.equals("rebuild")) {
+                System.out.println("Rebuilt " + rollups.rebuild() + " rows of totals");
+            } else if (command.equals("check")) {
+                List<String> mismatches = rollups.check();
+                mismatches.forEach(System.out::println);
+                System.out.println(mismatches.isEmpty() ? "The totals match the orders"
+                        : mismatches.size() + " totals do not match the orders");
+                if (!mismatches.isEmpty()) status = 1;
+            } else {
+                EntityManager manager = factory.createEntityManager();
+                try {
+                    manager.createNamedQuery("ReturnProductSales", Product_sales.class)
+                            .getResultList().forEach(System.out::println);
+                    manager.createNamedQuery("ReturnSalespersonSales", Salesperson_sales.class)
+                            .getResultList().forEach(System.out::println);
+                } finally {
+                    manager.close();
+                }
+            }
+        } finally {
+            factory.close();
+        }
+        if (status != 0) System.exit(status);
+    } // End of main method
+
+    /**
+     * Add one order to the totals.  Must be called inside the transaction that commits the order.
+     *
+     * @param manager The EntityManager whose transaction the order belongs to.
+     * @param order   The order, already persisted.
+     */
+    public static void record(EntityManager manager, OrderBuilder order) {
+        record(manager, Collections.singletonList(order));
+    }
+
+    /**
+     * Add several orders to the totals, with one UPDATE per product and salesperson however
+     * many of the orders they appear in.  Must be called inside the transaction that commits
+     * the orders.
+     *
+     * @param manager The EntityManager whose transaction the orders belong to.
+     * @param orders  The orders, already persisted.
+     */
+    public static void record(EntityManager manager, Collection<OrderBuilder> orders) {
+        if (orders.isEmpty()) return;
+        // Key to {units, revenue in cents, orders}, sorted so rows are locked in key order.
+        Map<String, long[]> products = new TreeMap<>();
+        Map<String, long[]> salespeople = new TreeMap<>();
+        for (OrderBuilder order : orders) {
+            long units = 0;
+            for (Order_lines line : order.getLines()) {
+                int quantity = line.getQuantity();
+                add(products, line.getProduct().getUPC(), quantity,
+                        Money.times(line.getUnit_sale_price().getCents(), quantity));
+                units += quantity;
+            }
+            add(salespeople, order.getOrder().getSold_by(), units, order.getTotalCents());
+        }
+        Connection connection = manager.unwrap(Connection.class);
+        apply(connection, Product_sales.ADD_SQL, Product_sales.INSERT_SQL, products);
+        apply(connection, Salesperson_sales.ADD_SQL, Salesperson_sales.INSERT_SQL, salespeople);
+    } // End of record method
+
+    private static void add(Map<String, long[]> totals, String key, long units, long cents) {
+        long[] total = totals.computeIfAbsent(key, k -> new long[3]);
+        total[0] = Math.addExact(total[0], units);
+        total[1] = Money.plus(total[1], cents);
+        total[2]++;
+    }
+
+    /**
+     * Add each key's totals to its row with ADD_SQL, as one batch, then INSERT the rows that
+     * were not there yet.  If another transaction inserts the same key first, our INSERT fails
+     * once theirs commits, and by then the UPDATE will find their row.
+     */
+    private static void apply(Connection connection, String addSql, String insertSql, Map<String, long[]> sorted) {
+        try {
+            List<String> missing = new ArrayList<>();
+            try (PreparedStatement add = connection.prepareStatement(addSql)) {
+                for (Map.Entry<String, long[]> total : sorted.entrySet()) {
+                    bindAdd(add, total.getKey(), total.getValue());
+                    add.addBatch();
+                }
+                int[] updated = add.executeBatch();
+                int i = 0;
+                for (String key : sorted.keySet()) {
+                    if (updated[i++] == 0) missing.add(key);
+                }
+                if (missing.isEmpty()) return;
+                try (PreparedStatement insert = connection.prepareStatement(insertSql)) {
+                    for (String key : missing) {
+                        long[] total = sorted.get(key);
+                        insert.setString(1, key);
+                        insert.setLong(2, total[0]);
+                        insert.setBigDecimal(3, BigDecimal.valueOf(total[1], 2));
+                        insert.setLong(4, total[2]);
+                        try {
+                            insert.executeUpdate();
+                        } catch (SQLException e) {
+                            String state = e.getSQLState();
+                            if (state == null || !state.startsWith(INTEGRITY_CONSTRAINT)) throw e;
+                            bindAdd(add, key, total);
+                            if (add.executeUpdate() != 1) throw e;
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not update the sales totals for " + sorted.keySet(), e);
+        }
+    } // End of apply method
+
+    private static void bindAdd(PreparedStatement add, String key, long[] total) throws SQLException {
+        add.setLong(1, total[0]);
+        add.setBigDecimal(2, BigDecimal.valueOf(total[1], 2));
+        add.setLong(3, total[2]);
+        add.setString(4, key);
+    }
+
+    /**
+     * Throw the totals away and work them out again from every order there is, in one
+     * transaction.  On Derby the rollup tables are locked exclusively and the order tables in
+     * share mode first, so orders placed meanwhile wait for the rebuild and are then added to
+     * the new totals; on MySQL, INSERT ... SELECT locks the rows it reads.
+     *
+     * @return How many rows of totals there are now.
+     */
+    public int rebuild() {
+        return inTransaction(true, connection -> {
+            int rows = 0;
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM PRODUCT_SALES");
+                rows += statement.executeUpdate("INSERT INTO PRODUCT_SALES (UPC, UNITS, REVENUE, ORDER_COUNT) " +
+                        Product_sales.TOTALS_SQL);
+                statement.executeUpdate("DELETE FROM SALESPERSON_SALES");
+                rows += statement.executeUpdate("INSERT INTO SALESPERSON_SALES (SOLD_BY, UNITS, REVENUE, ORDER_COUNT) " +
+                        Salesperson_sales.TOTALS_SQL);
+            }
+            return rows;
+        });
+    } // End of rebuild method
+
+    /**
+     * Work the totals out from scratch, as rebuild would, and compare them with the ones that
+     * have been kept.  Nothing is changed.
+     *
+     * @return One line for every product or salesperson whose kept totals are wrong or
+     * missing; empty if they all match.
+     */
+    public List<String> check() {
+        return inTransaction(false, connection -> {
+            List<String> mismatches = new ArrayList<>();
+            compare(connection, "Product", "SELECT UPC, UNITS, REVENUE, ORDER_COUNT FROM PRODUCT_SALES",
+                    Product_sales.TOTALS_SQL, mismatches);
+            compare(connection, "Salesperson", "SELECT SOLD_BY, UNITS, REVENUE, ORDER_COUNT FROM SALESPERSON_SALES",
+                    Salesperson_sales.TOTALS_SQL, mismatches);
+            return mismatches;
+        });
+    } // End of check method
+
+    private static void compare(Connection connection, String what, String keptSql, String totalsSql,
+                                List<String> mismatches) throws SQLException {
+        Map<String, long[]> kept = read(connection, keptSql);
+        Map<String, long[]> actual = read(connection, totalsSql);
+        TreeSet<String> keys = new TreeSet<>(kept.keySet());
+        keys.addAll(actual.keySet());
+        for (String key : keys) {
+            long[] keptTotal = kept.get(key);
+            long[] actualTotal = actual.get(key);
+            if (!Arrays.equals(keptTotal, actualTotal)) {
+                mismatches.add(what + " " + key + ": kept " + describe(keptTotal) + ", orders say " + describe(actualTotal));
+            }
+        }
+    }
+
+    /** Key to {units, revenue in cents, orders}, from a query returning those four columns. */
+    private static Map<String, long[]> read(Connection connection, String sql) throws SQLException {
+        Map<String, long[]> totals = new TreeMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            while (rows.next()) {
+                totals.put(rows.getString(1), new long[]{rows.getLong(2),
+                        rows.getBigDecimal(3).movePointRight(2).longValueExact(), rows.getLong(4)});
+            }
+        }
+        return totals;
+    }
+
+    private static String describe(long[] total) {
+        if (total == null) return "nothing";
+        return "units " + total[0] + ", revenue " + Money.ofCents(total[1]) + ", orders " + total[2];
+    }
+
+    /** A piece of work on the transaction's JDBC connection. */
+    private interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Run work in a transaction of its own, with the rollup and order tables locked against
+     * orders being placed meanwhile (on Derby; see rebuild).
+     *
+     * @param writing Whether the work changes the rollup tables, which then need exclusive locks.
+     */
+    private <T> T inTransaction(boolean writing, Work<T> work) {
+        EntityManager manager = factory.createEntityManager();
+        EntityTransaction tx = manager.getTransaction();
+        try {
+            tx.begin();
+            Connection connection = manager.unwrap(Connection.class);
+            if (connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("derby")) {
+                try (Statement statement = connection.createStatement()) {
+                    String mode = writing ? "EXCLUSIVE" : "SHARE";
+                    statement.execute("LOCK TABLE PRODUCT_SALES IN " + mode + " MODE");
+                    statement.execute("LOCK TABLE SALESPERSON_SALES IN " + mode + " MODE");
+                    statement.execute("LOCK TABLE ORDERS IN SHARE MODE");
+                    statement.execute("LOCK TABLE ORDER_LINES IN SHARE MODE");
+                }
+            }
+            T result = work.run(connection);
+            tx.commit();
+            return result;
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not read or write the sales totals", e);
+        } finally {
+            if (tx.isActive()) tx.rollback();
+            manager.close();
+        }
+    } // End of inTransaction method
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Money;
+
+/**
+ * One row of a sales report: what was sold under one key (a product, a salesperson, a customer
+ * or a day) over the report's time range.
+ */
+public class SalesTotal {
+    private final String key;
+    private final long units;
+    private final long revenueCents;
+    private final long lines;
+
+    public SalesTotal(String key, long units, long revenueCents, long lines) {
+        this.key = key;
+        this.units = units;
+        this.revenueCents = revenueCents;
+        this.lines = lines;
+    }
+
+    /** @return The UPC, salesperson, customer_id or day (yyyy-mm-dd) these totals are for. */
+    public String getKey() {
+        return key;
+    }
+
+    /** @return How many units were sold. */
+    public long getUnits() {
+        return units;
+    }
+
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+
+    public Money getRevenue() {
+        return Money.ofCents(revenueCents);
+    }
+
+    /**
+     * @return How many order lines were counted.  An order has one line per product, so in a
+     * report by product this is also how many orders the product was in.
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * These totals plus another partition's totals for the same key.
+     */
+    public SalesTotal plus(SalesTotal other) {
+        return new SalesTotal(key, Math.addExact(units, other.units),
+                Money.plus(revenueCents, other.revenueCents), Math.addExact(lines, other.lines));
+    }
+
+    @Override
+    public String toString() {
+        return "Sales- Key: " + key + ", Units: " + units + ", Revenue: " + getRevenue() + ", Lines: " + lines;
+    }
+}
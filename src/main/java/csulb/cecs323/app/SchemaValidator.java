@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.internal.helper.DatabaseTable;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.sequencing.TableSequence;
+import org.eclipse.persistence.sessions.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Map;
+
+/**
+ * Checks that an existing database has every table and column the entities are mapped to.
+ * Used in place of drop-and-create when the application starts in StartupMode.VALIDATE, so a
+ * schema that is out of date is caught at startup and not by the first query that touches it.
+ */
+public class SchemaValidator {
+    private SchemaValidator() {}
+
+    /**
+     * Compare the mapped tables and columns with the database's catalog.
+     *
+     * @param factory The EntityManagerFactory to check.
+     * @throws IllegalStateException Listing every missing table and column, if there are any.
+     */
+    public static void validate(EntityManagerFactory factory) {
+        Session session = JpaHelper.getServerSession(factory);
+        // Table name (upper case) to the columns it must have.
+        Map<String, Set<String>> expected = new TreeMap<>();
+        for (ClassDescriptor descriptor : session.getDescriptors().values()) {
+            for (DatabaseTable table : descriptor.getTables()) {
+                expected.computeIfAbsent(upper(table.getName()), t -> new HashSet<>());
+            }
+            for (DatabaseField field : descriptor.getFields()) {
+                String table = field.getTableName();
+                if (table == null || table.isEmpty()) table = descriptor.getTableName();
+                expected.computeIfAbsent(upper(table), t -> new HashSet<>()).add(upper(field.getName()));
+            }
+        }
+        // getSequences is a raw Map, so go through its values as Objects.
+        Map<?, ?> sequences = session.getLogin().getSequences();
+        if (sequences != null) {
+            for (Object sequence : sequences.values()) {
+                if (sequence instanceof TableSequence) {
+                    TableSequence table = (TableSequence) sequence;
+                    Set<String> columns = expected.computeIfAbsent(upper(table.getTableName()), t -> new HashSet<>());
+                    columns.add(upper(table.getNameFieldName()));
+                    columns.add(upper(table.getCounterFieldName()));
+                }
+            }
+        }
+
+        List<String> problems = new ArrayList<>();
+        EntityManager manager = factory.createEntityManager();
+        try {
+            // EclipseLink only hands out its JDBC connection inside a transaction.
+            manager.getTransaction().begin();
+            Connection connection = manager.unwrap(Connection.class);
+            if (allPresent(connection, expected)) return;
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (Map.Entry<String, Set<String>> table : expected.entrySet()) {
+                Set<String> actual = columnsOf(metaData, table.getKey());
+                if (actual.isEmpty()) {
+                    problems.add("table " + table.getKey() + " is missing");
+                    continue;
+                }
+                for (String column : table.getValue()) {
+                    if (!actual.contains(column)) {
+                        problems.add("column " + table.getKey() + "." + column + " is missing");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the database schema", e);
+        } finally {
+            if (manager.getTransaction().isActive()) manager.getTransaction().rollback();
+            manager.close();
+        }
+        if (!problems.isEmpty()) {
+            String fix = problems.contains("column ORDERS.ORDER_ID is missing")
+                    ? "run " + OrderKeyMigration.class.getName() + " to move it to the order_id key, or "
+                    : "";
+            throw new IllegalStateException("The database schema does not match the entities (" +
+                    String.join(", ", problems) + "); " + fix + "start once with " + StartupMode.PROPERTY +
+                    "=rebuild to create it");
+        }
+    } // End of validate method
+
+    /**
+     * The quick check: select every expected column from every table, reading no rows.  The
+     * database only has to compile each statement, which is much cheaper than reading its
+     * catalog through DatabaseMetaData, so that is only done when this finds a problem.
+     */
+    private static boolean allPresent(Connection connection, Map<String, Set<String>> expected) {
+        try (Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, Set<String>> table : expected.entrySet()) {
+                String columns = table.getValue().isEmpty() ? "*" : String.join(", ", table.getValue());
+                statement.executeQuery("SELECT " + columns + " FROM " + table.getKey() + " WHERE 1 = 0").close();
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** The columns of a table, upper case; empty if there is no such table. */
+    private static Set<String> columnsOf(DatabaseMetaData metaData, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        // Derby folds unquoted names to upper case and MySQL keeps them as written, so try both.
+        for (String name : new String[]{table, table.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet rows = metaData.getColumns(null, null, name, null)) {
+                while (rows.next()) {
+                    columns.add(upper(rows.getString("COLUMN_NAME")));
+                }
+            }
+            if (!columns.isEmpty()) break;
+        }
+        return columns;
+    }
+
+    private static String upper(String name) {
+        return name.replace("\"", "").replace("`", "").toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,802 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Import_checkpoints;
+import csulb.cecs323.model.Order_lines;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.jpa.JpaHelper;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Loads seed data (or a nightly feed) from SQL or CSV files straight into the tables, much faster
+ * than the sql-load-script-source in persistence.xml, which runs one INSERT at a time.
+ * <p>
+ * Two kinds of file are understood:
+ * </p>
+ * <ul>
+ *     <li>.sql: one INSERT statement per line, the same format as the load script.  Each
+ *     statement may name any of the tables.  Blank lines and -- comments are skipped.</li>
+ *     <li>.csv: rows for the one table the file is named after (customers.csv, products.csv,
+ *     orders.csv or order_lines.csv).  The first line holds the column names.  Fields may be
+ *     quoted with double quotes, but may not contain line breaks; an empty unquoted field is
+ *     NULL.</li>
+ * </ul>
+ * <p>
+ * A file is read chunkBytes at a time through a memory-mapped FileChannel, always ending a chunk
+ * on a line break.  While one chunk is being written, the next is already being decoded and
+ * parsed, line by line in parallel, on a ForkJoinPool.  Each chunk is written in one transaction
+ * with batched JDBC INSERTs, table by table in dependency order (customers and products before
+ * orders, orders before order lines), so a chunk of a mixed SQL file can hold an order and its
+ * customer in either order.  Across chunks and files, parents still have to come first; import
+ * takes care of that when each table has its own file.
+ * </p>
+ * <p>
+ * Each chunk's transaction also records the byte offset reached in Import_checkpoints, so the
+ * checkpoint can never be behind (or ahead of) the rows.  If an import fails, or the JVM dies
+ * part way through, fix the problem and run it again: it picks up after the last committed
+ * chunk instead of starting over, and deletes the checkpoint once it finishes.  A checkpoint
+ * belongs to one version of one file: it is kept under a hash of the file's absolute path, size
+ * and modification time.  Tonight's customers.csv is a different file from last night's, even
+ * in the same place, so it starts from the top; the checkpoint last night's left behind is
+ * dropped, with a warning.
+ * </p>
+ * <p>
+ * The rows go in around EclipseLink, so once a file is done (or has failed) the shared cache
+ * forgets the entities of the tables it wrote to.  Other entities stay cached.
+ * </p>
+ */
+public class SeedImporter {
+    /** How much of a file is read, parsed and committed at a time, unless told otherwise. */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+
+    /** Rows per executeBatch. */
+    public static final int BATCH_SIZE = 1000;
+
+    /** The tables, in the order their rows have to be written so foreign keys are satisfied. */
+    public static final List<String> TABLE_ORDER = Arrays.asList("CUSTOMERS", "PRODUCTS", "ORDERS", "ORDER_LINES");
+
+    private static final Logger LOGGER = Logger.getLogger(SeedImporter.class.getName());
+
+    private static final Pattern INSERT = Pattern.compile(
+            "\\s*INSERT\\s+INTO\\s+([\\w.\"]+)\\s*(?:\\(([^)]*)\\))?\\s*VALUES\\s*\\((.*)\\)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final EntityManagerFactory factory;
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+    private Consumer<Progress> progressListener = SeedImporter::logProgress;
+
+    /** Column types by table and column list, looked up once per statement shape. */
+    private final Map<String, int[]> columnTypes = new HashMap<>();
+
+    public SeedImporter(EntityManagerFactory factory) {
+        this(factory, ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param factory    Where the rows go.
+     * @param pool       The pool that parses lines.
+     * @param chunkBytes About how much of a file to read, parse and commit at a time.
+     */
+    public SeedImporter(EntityManagerFactory factory, ForkJoinPool pool, int chunkBytes) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("chunkBytes must be at least 1, was " + chunkBytes);
+        }
+        this.factory = factory;
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /** Be told after every committed chunk.  By default progress is logged at INFO. */
+    public void setProgressListener(Consumer<Progress> listener) {
+        this.progressListener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Import several files.  CSV files named after a table are imported in TABLE_ORDER; any
+     * other files come after them, in the order given.
+     *
+     * @param files The files to import.
+     * @return How many rows were written.
+     */
+    public long importFiles(List<Path> files) {
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingInt(SeedImporter::rank));
+        long rows = 0;
+        for (Path file : ordered) {
+            rows += importFile(file);
+        }
+        return rows;
+    }
+
+    /**
+     * Import one file, resuming after the last committed chunk if an earlier attempt failed.
+     *
+     * @param file The .sql or .csv file to import.
+     * @return How many rows were written by this call.
+     */
+    public long importFile(Path file) {
+        FileKey key = FileKey.of(file);
+        long offset = 0;
+        EntityManager manager = factory.createEntityManager();
+        try {
+            Import_checkpoints checkpoint = manager.find(Import_checkpoints.class, key.key);
+            if (checkpoint != null) {
+                offset = checkpoint.getResume_offset();
+                if (offset > key.size) {
+                    throw new IllegalStateException("The checkpoint for " + file + " is at byte " + offset
+                            + " but the file has only " + key.size + "; delete it from Import_checkpoints to start over");
+                }
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Resuming " + file + " at byte " + offset);
+                }
+            }
+        } finally {
+            manager.close();
+        }
+        if (offset == 0) dropStaleCheckpoints(key);
+        long rows = importFile(file, offset, key);
+        deleteCheckpoint(key.key);
+        return rows;
+    }
+
+    /**
+     * Import one file, starting at a given byte offset.
+     *
+     * @param file   The .sql or .csv file to import.
+     * @param offset Where to start: 0, or the start of a line, such as the resume offset of an
+     *               ImportFailedException.
+     * @return How many rows were written.
+     * @throws ImportFailedException If a chunk could not be read, parsed or written.  Every
+     *                               chunk before it has been committed.
+     */
+    public long importFile(Path file, long offset) {
+        return importFile(file, offset, FileKey.of(file));
+    }
+
+    private long importFile(Path file, long offset, FileKey key) {
+        long start = System.nanoTime();
+        long committed = offset;
+        long rows = 0;
+        Set<String> tables = new HashSet<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size != key.size) {
+                throw new IllegalStateException(file + " changed size since the import started");
+            }
+            if (offset > size) {
+                throw new IllegalArgumentException("Offset " + offset + " is past the end of " + file + " (" + size + " bytes)");
+            }
+            LineParser parser;
+            if (isCsv(file)) {
+                String table = tableOf(file);
+                if (table == null) {
+                    throw new IllegalArgumentException(file + " is not named after one of the tables " + TABLE_ORDER);
+                }
+                Chunk header = read(channel, 0, size);
+                String firstLine = header.decode().split("\n", 2)[0];
+                String[] columns = splitCsv(firstLine.trim());
+                long headerEnd = firstLine.getBytes(StandardCharsets.UTF_8).length + 1L;
+                parser = line -> new Row(table, columns, splitCsv(line));
+                committed = Math.max(committed, Math.min(headerEnd, size));
+            } else {
+                parser = SeedImporter::parseInsert;
+            }
+            Chunk chunk = committed < size ? read(channel, committed, size) : null;
+            Future<List<Row>> parsed = chunk == null ? null : parse(chunk, parser);
+            while (chunk != null) {
+                List<Row> chunkRows = parsed.get();
+                // Read and start parsing the next chunk before writing this one.
+                Chunk next = chunk.end < size ? read(channel, chunk.end, size) : null;
+                Future<List<Row>> nextParsed = next == null ? null : parse(next, parser);
+                write(chunkRows, key, chunk.end, tables);
+                rows += chunkRows.size();
+                committed = chunk.end;
+                progressListener.accept(new Progress(file, committed, size, rows, System.nanoTime() - start));
+                chunk = next;
+                parsed = nextParsed;
+            }
+        } catch (ExecutionException e) {
+            throw new ImportFailedException(file, committed, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImportFailedException(file, committed, e);
+        } catch (IOException | SQLException | RuntimeException e) {
+            throw new ImportFailedException(file, committed, e);
+        } finally {
+            evict(tables);
+        }
+        return rows;
+    } // End of importFile method
+
+    /**
+     * Map the next chunk of the file, extended to the end of the line it stops in.
+     */
+    private Chunk read(FileChannel channel, long position, long size) throws IOException {
+        long length = Math.min(chunkBytes, size - position);
+        while (true) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (position + length == size) {
+                return new Chunk(buffer, position, size);
+            }
+            for (int i = (int) length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    buffer.limit(i + 1);
+                    return new Chunk(buffer, position, position + i + 1);
+                }
+            }
+            // One line longer than a whole chunk: map more of the file.
+            length = Math.min(length * 2, size - position);
+        }
+    }
+
+    /**
+     * Decode and parse a chunk's lines in parallel on the pool.  The rows come back in file
+     * order.
+     */
+    private Future<List<Row>> parse(Chunk chunk, LineParser parser) {
+        return pool.submit(() -> Arrays.stream(chunk.decode().split("\n"))
+                .parallel()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("--"))
+                .map(parser::parse)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Write one chunk's rows in a single transaction: table by table in TABLE_ORDER, and within
+     * a table one batched PreparedStatement per column list.  The same transaction moves the
+     * file's checkpoint to the end of the chunk.  The tables written to are added to tables,
+     * even if the transaction fails, since a failed commit may still have written some rows.
+     */
+    private void write(List<Row> rows, FileKey file, long resumeOffset, Set<String> tables) throws SQLException {
+        Map<String, List<Row>> byStatement = new LinkedHashMap<>();
+        for (Row row : rows) {
+            byStatement.computeIfAbsent(row.statementKey(), key -> new ArrayList<>()).add(row);
+        }
+        List<List<Row>> statements = new ArrayList<>(byStatement.values());
+        statements.sort(Comparator.comparingInt(group -> tableRank(group.get(0).table)));
+        EntityManager manager = factory.createEntityManager();
+        EntityTransaction tx = manager.getTransaction();
+        try {
+            tx.begin();
+            Connection connection = manager.unwrap(Connection.class);
+            for (List<Row> group : statements) {
+                Row first = group.get(0);
+                tables.add(first.table);
+                int[] types = columnTypes(connection, first);
+                try (PreparedStatement insert = connection.prepareStatement(first.insertSql())) {
+                    int pending = 0;
+                    for (Row row : group) {
+                        if (row.values.length != types.length) {
+                            throw new IllegalArgumentException("Expected " + types.length + " values for " +
+                                    row.table + " but found " + row.values.length + ": " + Arrays.toString(row.values));
+                        }
+                        try {
+                            for (int i = 0; i < types.length; i++) {
+                                bind(insert, i + 1, types[i], row.values[i]);
+                            }
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Bad value for " + row.table + " in " +
+                                    Arrays.toString(row.values) + ": " + e.getMessage(), e);
+                        }
+                        insert.addBatch();
+                        if (++pending == BATCH_SIZE) {
+                            insert.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    if (pending > 0) insert.executeBatch();
+                }
+                if (first.table.equals("CUSTOMERS")) {
+                    skipImportedIds(connection, "CUSTOMERS", "CUSTOMER_ID");
+                } else if (first.table.equals("ORDERS")) {
+                    skipImportedIds(connection, "ORDERS", "ORDER_ID");
+                }
+            }
+            saveCheckpoint(connection, file, resumeOffset);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) tx.rollback();
+            manager.close();
+        }
+    }
+
+    /**
+     * The rows went around EclipseLink, so what it has cached of these tables cannot be trusted.
+     * Done once per file rather than per chunk, and only for these tables, so that the rest of
+     * the shared cache stays warm for whoever else is using it.
+     */
+    private void evict(Set<String> tables) {
+        for (String table : tables) {
+            switch (table) {
+                case "CUSTOMERS": factory.getCache().evict(Customers.class); break;
+                case "PRODUCTS": factory.getCache().evict(Products.class); break;
+                case "ORDERS": factory.getCache().evict(Orders.class); break;
+                case "ORDER_LINES": factory.getCache().evict(Order_lines.class); break;
+                default:
+                    // No entity is mapped to it, so nothing cached can be out of date.
+            }
+        }
+    }
+
+    /**
+     * Customer and order ids come out of blocks reserved in ID_BLOCKS (see Customers and
+     * Orders).  Move the next block past the highest imported id, and make this JVM forget the
+     * blocks it may already hold, so that new rows do not collide with imported ones.
+     */
+    private void skipImportedIds(Connection connection, String table, String idColumn) throws SQLException {
+        String highest = "(SELECT MAX(" + idColumn + ") FROM " + table + ")";
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE ID_BLOCKS SET NEXT_ID = " + highest + " " +
+                    "WHERE SEQ_NAME = '" + table + "' AND NEXT_ID < " + highest);
+        }
+        JpaHelper.getServerSession(factory).getSequencingControl().initializePreallocated();
+    }
+
+    /** The JDBC types of a row's columns, read from the database the first time they are needed. */
+    private int[] columnTypes(Connection connection, Row row) throws SQLException {
+        int[] types = columnTypes.get(row.statementKey());
+        if (types == null) {
+            String columns = row.columns == null ? "*" : String.join(", ", row.columns);
+            try (Statement statement = connection.createStatement();
+                 ResultSet empty = statement.executeQuery(
+                         "SELECT " + columns + " FROM " + row.table + " WHERE 1 = 0")) {
+                ResultSetMetaData metaData = empty.getMetaData();
+                types = new int[metaData.getColumnCount()];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = metaData.getColumnType(i + 1);
+                }
+            }
+            columnTypes.put(row.statementKey(), types);
+        }
+        return types;
+    }
+
+    /** Bind one value, converting the text from the file to the column's type. */
+    private static void bind(PreparedStatement insert, int index, int type, String value) throws SQLException {
+        if (value == null) {
+            insert.setNull(index, type);
+            return;
+        }
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                insert.setInt(index, Integer.parseInt(value));
+                break;
+            case Types.BIGINT:
+                insert.setLong(index, Long.parseLong(value));
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                insert.setDouble(index, Double.parseDouble(value));
+                break;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                insert.setBigDecimal(index, new BigDecimal(value));
+                break;
+            case Types.TIMESTAMP:
+                // Accept LocalDateTime.toString() (2021-03-04T10:15:30) as well as JDBC format.
+                insert.setTimestamp(index, Timestamp.valueOf(value.replace('T', ' ')));
+                break;
+            default:
+                insert.setString(index, value);
+        }
+    }
+
+    /** Parse one line of a .sql file. */
+    static Row parseInsert(String line) {
+        Matcher matcher = INSERT.matcher(line);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a single-row INSERT statement: " + line);
+        }
+        String table = matcher.group(1).replace("\"", "").toUpperCase(Locale.ROOT);
+        String[] columns = null;
+        if (matcher.group(2) != null) {
+            columns = Arrays.stream(matcher.group(2).split(","))
+                    .map(column -> column.trim().replace("\"", "").toUpperCase(Locale.ROOT))
+                    .toArray(String[]::new);
+        }
+        return new Row(table, columns, splitValues(matcher.group(3)));
+    }
+
+    /** Split a VALUES list: 'quoted text' with '' for a quote, numbers, and NULL. */
+    static String[] splitValues(String values) {
+        List<String> fields = new ArrayList<>();
+        int i = 0;
+        int n = values.length();
+        while (i <= n) {
+            while (i < n && Character.isWhitespace(values.charAt(i))) i++;
+            if (i < n && values.charAt(i) == '\'') {
+                StringBuilder text = new StringBuilder();
+                i++;
+                while (i < n) {
+                    char c = values.charAt(i++);
+                    if (c == '\'') {
+                        if (i < n && values.charAt(i) == '\'') {
+                            text.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        text.append(c);
+                    }
+                }
+                fields.add(text.toString());
+                while (i < n && values.charAt(i) != ',') i++;
+            } else {
+                int comma = values.indexOf(',', i);
+                if (comma < 0) comma = n;
+                String literal = values.substring(i, comma).trim();
+                fields.add(literal.equalsIgnoreCase("NULL") ? null : literal);
+                i = comma;
+            }
+            i++;
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    /** Split one CSV line. */
+    static String[] splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Record the resume offset on the chunk's own connection.  The rows went in through JDBC,
+     * so this does too, rather than through an entity EclipseLink would write at commit.
+     */
+    private static void saveCheckpoint(Connection connection, FileKey key, long offset) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE IMPORT_CHECKPOINTS SET RESUME_OFFSET = ? WHERE FILE_KEY = ?")) {
+            update.setLong(1, offset);
+            update.setString(2, key.key);
+            if (update.executeUpdate() > 0) return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO IMPORT_CHECKPOINTS (FILE_KEY, FILE_PATH, RESUME_OFFSET) VALUES (?, ?, ?)")) {
+            insert.setString(1, key.key);
+            insert.setString(2, key.path);
+            insert.setLong(3, offset);
+            insert.executeUpdate();
+        }
+    }
+
+    /** The file is finished, so its checkpoint is no longer needed. */
+    private void deleteCheckpoint(String key) {
+        EntityManager manager = factory.createEntityManager();
+        EntityTransaction tx = manager.getTransaction();
+        try {
+            tx.begin();
+            Import_checkpoints checkpoint = manager.find(Import_checkpoints.class, key);
+            if (checkpoint != null) manager.remove(checkpoint);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) tx.rollback();
+            manager.close();
+        }
+    }
+
+    /**
+     * Drop the checkpoints of earlier versions of a file that is about to be imported from the
+     * top.  They can never be resumed: the rows they point into are gone.
+     */
+    private void dropStaleCheckpoints(FileKey key) {
+        EntityManager manager = factory.createEntityManager();
+        EntityTransaction tx = manager.getTransaction();
+        try {
+            tx.begin();
+            List<Import_checkpoints> stale = manager.createQuery(
+                    "SELECT c FROM Import_checkpoints c WHERE c.file_path = :path AND c.file_key <> :key",
+                    Import_checkpoints.class)
+                    .setParameter("path", key.path)
+                    .setParameter("key", key.key)
+                    .getResultList();
+            for (Import_checkpoints checkpoint : stale) {
+                if (LOGGER.isLoggable(Level.WARNING)) {
+                    LOGGER.warning("Dropping the checkpoint of an unfinished import of an earlier version of "
+                            + key.path + " at byte " + checkpoint.getResume_offset());
+                }
+                manager.remove(checkpoint);
+            }
+            tx.commit();
+        } finally {
+            if (tx.isActive()) tx.rollback();
+            manager.close();
+        }
+    }
+
+    /**
+     * What a file is known by in Import_checkpoints: the SHA-256 of its absolute path, size and
+     * modification time, so a checkpoint is only ever resumed against the very file it was
+     * written for.
+     */
+    private static final class FileKey {
+        private final String key;
+        private final String path;
+        private final long size;
+
+        private FileKey(String key, String path, long size) {
+            this.key = key;
+            this.path = path;
+            this.size = size;
+        }
+
+        static FileKey of(Path file) {
+            try {
+                String path = file.toAbsolutePath().normalize().toString();
+                long size = Files.size(file);
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                byte[] hash = MessageDigest.getInstance("SHA-256")
+                        .digest((path + '\n' + size + '\n' + modified).getBytes(StandardCharsets.UTF_8));
+                StringBuilder key = new StringBuilder(64);
+                for (byte b : hash) {
+                    key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return new FileKey(key.toString(), path, size);
+            } catch (IOException e) {
+                throw new ImportFailedException(file, 0, e);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform has SHA-256.
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static boolean isCsv(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    /** The table a CSV file is named after, or null. */
+    private static String tableOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String table = (dot < 0 ? name : name.substring(0, dot)).toUpperCase(Locale.ROOT);
+        return TABLE_ORDER.contains(table) ? table : null;
+    }
+
+    private static int rank(Path file) {
+        String table = isCsv(file) ? tableOf(file) : null;
+        return table == null ? TABLE_ORDER.size() : TABLE_ORDER.indexOf(table);
+    }
+
+    private static int tableRank(String table) {
+        int rank = TABLE_ORDER.indexOf(table);
+        return rank < 0 ? TABLE_ORDER.size() : rank;
+    }
+
+    private static void logProgress(Progress progress) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info(progress.toString());
+        }
+    }
+
+    /**
+     * Import files from the command line, for example
+     * java csulb.cecs323.app.SeedImporter customers.csv products.csv seed-data.sql
+     * The database comes from the persistence profile; use -Dcsulb.cecs323.startup=validate to
+     * add to an existing database rather than rebuilding it first.
+     */
+    public static void main(String[] args) {
+        List<Path> files = Arrays.stream(args).map(Paths::get).collect(Collectors.toList());
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
+        try {
+            long start = System.nanoTime();
+            long rows = new SeedImporter(factory).importFiles(files);
+            System.out.println("Imported " + rows + " rows in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            factory.close();
+        }
+    }
+
+    /** Turns one line of a file into a row. */
+    private interface LineParser {
+        Row parse(String line);
+    }
+
+    /** A mapped piece of a file, from start up to (not including) end. */
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final long start;
+        final long end;
+
+        Chunk(ByteBuffer buffer, long start, long end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        String decode() {
+            return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString().replace("\r", "");
+        }
+    }
+
+    /** One parsed row: the table, its columns (null for all of them, in table order) and values. */
+    static class Row {
+        final String table;
+        final String[] columns;
+        final String[] values;
+
+        Row(String table, String[] columns, String[] values) {
+            this.table = table;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        String statementKey() {
+            return columns == null ? table : table + String.join(",", columns);
+        }
+
+        String insertSql() {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table);
+            if (columns != null) {
+                sql.append(" (").append(String.join(", ", columns)).append(')');
+            }
+            sql.append(" VALUES (");
+            for (int i = 0; i < values.length; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            return sql.append(')').toString();
+        }
+    }
+
+    /** How far an import has got. */
+    public static class Progress {
+        private final Path file;
+        private final long bytesDone;
+        private final long totalBytes;
+        private final long rows;
+        private final long elapsedNanos;
+
+        public Progress(Path file, long bytesDone, long totalBytes, long rows, long elapsedNanos) {
+            this.file = file;
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /** @return The offset up to which the file has been committed. */
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /** @return Rows written so far by this import. */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getPercentDone() {
+            return totalBytes == 0 ? 100 : bytesDone * 100.0 / totalBytes;
+        }
+
+        @Override
+        public String toString() {
+            return file.getFileName() + ": " + String.format("%.1f", getPercentDone()) + "% (" + rows +
+                    " rows in " + elapsedNanos / 1_000_000 + " ms)";
+        }
+    }
+
+    /**
+     * An import stopped part way through.  Everything before getResumeOffset() is committed;
+     * running importFile again resumes from there.
+     */
+    public static class ImportFailedException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file;
+        private final long resumeOffset;
+
+        public ImportFailedException(Path file, long resumeOffset, Throwable cause) {
+            super("Import of " + file + " failed after byte " + resumeOffset + ": " + cause.getMessage(), cause);
+            this.file = file;
+            this.resumeOffset = resumeOffset;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getResumeOffset() {
+            return resumeOffset;
+        }
+    }
+}
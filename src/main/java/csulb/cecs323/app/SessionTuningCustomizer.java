@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import csulb.cecs323.model.CustomerChanges;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.ProductChanges;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.config.SessionCustomizer;
+import org.eclipse.persistence.descriptors.invalidation.TimeToLiveCacheInvalidationPolicy;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.queries.ReadQuery;
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+import java.util.List;
+
+/**
+ * The session customizer named in persistence.xml.  It applies the tuning settings that
+ * EclipseLink has no persistence unit property for:
+ * <ul>
+ *     <li>the id block sizes, through IdAllocationCustomizer,</li>
+ *     <li>{@value #CACHE_EXPIRY}, how many milliseconds a Products or Customers object may stay
+ *     in the shared cache before it is read again, in place of the expiry on their @Cache,</li>
+ *     <li>announcing customer changes through CustomerChanges after their transaction commits,</li>
+ *     <li>cache coordination between JVMs, through CacheCoordinator, and</li>
+ *     <li>{@value #FETCH_SIZE}, the number of rows the JDBC driver reads per round trip for every
+ *     named query that does not pick its own fetch size (see PersistenceProfile).</li>
+ * </ul>
+ */
+public class SessionTuningCustomizer implements SessionCustomizer {
+    /** The persistence unit (or -D system) property holding the default JDBC fetch size. */
+    public static final String FETCH_SIZE = "csulb.cecs323.jdbc.fetch-size";
+
+    /** The persistence unit (or -D system) property holding the shared cache expiry in milliseconds. */
+    public static final String CACHE_EXPIRY = "csulb.cecs323.cache.expiry";
+
+    @Override
+    public void customize(Session session) {
+        new IdAllocationCustomizer().customize(session);
+        // Customer and product changes are only announced once the transaction that made them
+        // commits.  Products changed with SQL leave the shared cache then too (again, for the
+        // ones InventoryReservations already evicted), so nobody can have read the old row back.
+        session.getEventManager().addListener(new SessionEventAdapter() {
+            @Override
+            public void postCommitUnitOfWork(SessionEvent event) {
+                CustomerChanges.committed();
+                ProductChanges.committed(upc -> session.getIdentityMapAccessor().invalidateObject(upc, Products.class));
+            }
+
+            @Override
+            public void postRollbackTransaction(SessionEvent event) {
+                CustomerChanges.rolledBack();
+                ProductChanges.rolledBack();
+            }
+        });
+        CacheCoordinator.install(session);
+        Object expiry = session.getProperty(CACHE_EXPIRY);
+        String millis = expiry != null ? expiry.toString() : System.getProperty(CACHE_EXPIRY);
+        if (millis != null) {
+            long ttl = Long.parseLong(millis.trim());
+            if (ttl < 1) {
+                throw new IllegalArgumentException(CACHE_EXPIRY + " must be at least 1, was " + ttl);
+            }
+            for (Class<?> cached : new Class<?>[]{Products.class, Customers.class}) {
+                session.getDescriptor(cached).setCacheInvalidationPolicy(new TimeToLiveCacheInvalidationPolicy(ttl));
+            }
+        }
+        Object value = session.getProperty(FETCH_SIZE);
+        String size = value != null ? value.toString() : System.getProperty(FETCH_SIZE);
+        if (size == null) return;
+        int fetchSize = Integer.parseInt(size.trim());
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException(FETCH_SIZE + " must not be negative, was " + fetchSize);
+        }
+        // The named queries are only added to the session after the customizers run, so set the
+        // fetch size once the session has logged in.
+        session.getEventManager().addListener(new SessionEventAdapter() {
+            @Override
+            public void postLogin(SessionEvent event) {
+                for (List<DatabaseQuery> queries : event.getSession().getQueries().values()) {
+                    for (DatabaseQuery query : queries) {
+                        if (query instanceof ReadQuery && ((ReadQuery) query).getFetchSize() == 0) {
+                            ((ReadQuery) query).setFetchSize(fetchSize);
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.app;
+
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How the application treats the database schema when it starts.  Picked with the
+ * {@value #PROPERTY} property, either in the persistence profile or with -D.
+ */
+public enum StartupMode {
+    /**
+     * Drop every table, create them again from the entity annotations and run the load script.
+     * This is what persistence.xml does, and is the default: right while the entities are still
+     * changing, but every launch starts from an empty database.
+     */
+    REBUILD,
+
+    /**
+     * Leave the schema and its data alone, and only check that it has every table and column
+     * the entities need (see SchemaValidator).  Seeding is left to the application, which should
+     * only seed empty tables.
+     */
+    VALIDATE;
+
+    /** The property that picks the startup mode: rebuild or validate. */
+    public static final String PROPERTY = "csulb.cecs323.startup";
+
+    /**
+     * @param value The value of the {@value #PROPERTY} property, or null.
+     * @return The mode it names; REBUILD if it is null.
+     */
+    public static StartupMode parse(String value) {
+        if (value == null) return REBUILD;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(PROPERTY + " must be rebuild or validate, was " + value);
+        }
+    }
+
+    /** @return The persistence unit properties this mode changes. */
+    public Map<String, String> getOverrides() {
+        if (this == REBUILD) return Collections.emptyMap();
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put(PersistenceUnitProperties.SCHEMA_GENERATION_DATABASE_ACTION,
+                PersistenceUnitProperties.SCHEMA_GENERATION_NONE_ACTION);
+        // EclipseLink still looks at the load script when no schema is generated, so blank it
+        // out rather than risk the seed rows going in twice.
+        overrides.put(PersistenceUnitProperties.SCHEMA_GENERATION_SQL_LOAD_SCRIPT_SOURCE, "");
+        return overrides;
+    }
+}
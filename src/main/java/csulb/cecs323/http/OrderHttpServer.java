@@ -0,0 +1,524 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import csulb.cecs323.app.CustomerSummary;
+import csulb.cecs323.app.GroupCommitOrderWriter;
+import csulb.cecs323.app.InsufficientStockException;
+import csulb.cecs323.app.JournaledOrderWriter;
+import csulb.cecs323.app.Listings;
+import csulb.cecs323.app.OrderJournal;
+import csulb.cecs323.app.OrderRequest;
+import csulb.cecs323.app.PersistenceProfile;
+import csulb.cecs323.app.ProductSummary;
+import csulb.cecs323.metrics.Metrics;
+import csulb.cecs323.model.Customers;
+import csulb.cecs323.model.Orders;
+import csulb.cecs323.model.Products;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A headless front end for taking orders over HTTP, on the HTTP server built into the JDK, so
+ * there is no server to install.
+ * <p>
+ * All bodies are JSON.  The endpoints are:
+ * </p>
+ * <ul>
+ *     <li>GET /products?after=UPC&amp;limit=N: a keyset page of ProductSummary rows, in UPC
+ *     order.  The response's "next" is the after for the following page, or null on the last.</li>
+ *     <li>GET /products/UPC: one product, or 404.</li>
+ *     <li>GET /customers?after=ID&amp;limit=N and GET /customers/ID: the same for customers.</li>
+ *     <li>POST /orders with {"customerId": 1, "soldBy": "Walid", "lines": [{"upc": "123",
+ *     "quantity": 2}]}: place an order.  Through a GroupCommitOrderWriter the answer is 201
+ *     with the order once it has committed; through a JournaledOrderWriter it is 202 with the
+ *     journal sequence number once the order is on disk in the journal.  A bad request,
+ *     unknown customer or unknown product is 400, and not enough stock is 409.</li>
+ * </ul>
+ * <p>
+ * Reads get an EntityManager of their own for the length of the request, as OrderEntryService's
+ * workers do, and go through the shared cache.  An order does not hold a thread while it waits:
+ * the handler hands it to the writer and returns, and the response is sent from the executor
+ * when the writer's future completes.  So thousands of orders can be in flight with a small
+ * pool, and the writer batches them into a few transactions.  On a JDK with virtual threads (21
+ * and later) every request gets one; otherwise a fixed pool of {@value #THREADS} threads serves
+ * them.
+ * </p>
+ */
+public class OrderHttpServer implements AutoCloseable {
+    /** The system property holding the port to listen on. */
+    public static final String PORT = "csulb.cecs323.http.port";
+
+    /** The system property holding the size of the thread pool, where there are no virtual threads. */
+    public static final String THREADS = "csulb.cecs323.http.threads";
+
+    /** The system property naming a journal directory; if set, main takes orders through the journal. */
+    public static final String JOURNAL = "csulb.cecs323.http.journal";
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_THREADS = 32;
+
+    /** Rows per page when the request does not say. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /** Connections the operating system may queue before the server accepts them. */
+    private static final int BACKLOG = 4096;
+
+    /** The largest order body read, in bytes. */
+    private static final int MAX_BODY = 64 * 1024;
+
+    private static final String STARTED = "csulb.cecs323.http.started";
+
+    private static final Logger LOGGER = Logger.getLogger(OrderHttpServer.class.getName());
+
+    private final EntityManagerFactory factory;
+    /** Exactly one of these two places the orders. */
+    private final GroupCommitOrderWriter groupWriter;
+    private final JournaledOrderWriter journaledWriter;
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    /**
+     * Start serving, with orders committed to the database before they are answered.
+     *
+     * @param factory The factory for the CustomerOrders persistence unit.
+     * @param address Where to listen; port 0 picks a free port.
+     * @param writer  Places the orders.  The caller closes it, after this server.
+     * @param threads The pool size, if there are no virtual threads.
+     */
+    public OrderHttpServer(EntityManagerFactory factory, InetSocketAddress address,
+                           GroupCommitOrderWriter writer, int threads) {
+        this(factory, address, writer, null, threads);
+    }
+
+    /**
+     * Start serving, with orders answered as soon as they are in the journal.
+     *
+     * @param factory The factory for the CustomerOrders persistence unit.
+     * @param address Where to listen; port 0 picks a free port.
+     * @param writer  Journals the orders.  The caller closes it, after this server.
+     * @param threads The pool size, if there are no virtual threads.
+     */
+    public OrderHttpServer(EntityManagerFactory factory, InetSocketAddress address,
+                           JournaledOrderWriter writer, int threads) {
+        this(factory, address, null, writer, threads);
+    }
+
+    private OrderHttpServer(EntityManagerFactory factory, InetSocketAddress address,
+                            GroupCommitOrderWriter groupWriter, JournaledOrderWriter journaledWriter, int threads) {
+        this.factory = factory;
+        this.groupWriter = groupWriter;
+        this.journaledWriter = journaledWriter;
+        this.executor = newExecutor(threads);
+        try {
+            this.server = HttpServer.create(address, BACKLOG);
+        } catch (IOException e) {
+            executor.shutdown();
+            throw new UncheckedIOException("Cannot listen on " + address, e);
+        }
+        server.createContext("/products", exchange -> handle(exchange, this::products));
+        server.createContext("/customers", exchange -> handle(exchange, this::customers));
+        server.createContext("/orders", exchange -> handle(exchange, this::orders));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * A virtual thread per task where the JDK has them, otherwise a fixed pool.  Looked up by
+     * reflection, because the project is still built for Java 11.
+     */
+    static ExecutorService newExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread worker = new Thread(runnable, "http-" + threadNumber.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+    }
+
+    /** @return The address the server is listening on, with the real port if 0 was asked for. */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /** Something that answers a request, now or once an order has been placed. */
+    private interface Route {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Run a route.  Whatever it throws, Errors included, is answered (and the exchange closed),
+     * so that a request can never leave its client waiting on an open connection.
+     */
+    private void handle(HttpExchange exchange, Route route) {
+        exchange.setAttribute(STARTED, Metrics.start());
+        try {
+            route.handle(exchange);
+        } catch (Throwable e) {
+            fail(exchange, e);
+        }
+    }
+
+    private void products(HttpExchange exchange) {
+        if (!isMethod(exchange, "GET")) return;
+        String upc = item(exchange, "/products");
+        EntityManager manager = factory.createEntityManager();
+        try {
+            if (upc == null) {
+                Map<String, String> query = query(exchange);
+                List<ProductSummary> page = Listings.productSummariesPage(manager,
+                        query.getOrDefault("after", ""), pageSize(query));
+                StringBuilder out = new StringBuilder(64 + 96 * page.size()).append("{\"products\":[");
+                for (int i = 0; i < page.size(); i++) {
+                    if (i > 0) out.append(',');
+                    ProductSummary product = page.get(i);
+                    Json.quote(out.append("{\"upc\":"), product.getUPC());
+                    Json.quote(out.append(",\"name\":"), product.getName());
+                    product.getPrice().appendTo(out.append(",\"price\":"));
+                    out.append(",\"unitsInStock\":").append(product.getUnitsInStock()).append('}');
+                }
+                String next = page.size() < pageSize(query) ? null : page.get(page.size() - 1).getUPC();
+                respond(exchange, 200, Json.quote(out.append("],\"next\":"), next).append('}'));
+            } else {
+                Products product = manager.find(Products.class, upc,
+                        Collections.singletonMap(QueryHints.READ_ONLY, HintValues.TRUE));
+                if (product == null) {
+                    respond(exchange, 404, error("No product with UPC " + upc));
+                    return;
+                }
+                StringBuilder out = new StringBuilder(256);
+                Json.quote(out.append("{\"upc\":"), product.getUPC());
+                Json.quote(out.append(",\"name\":"), product.getProd_name());
+                Json.quote(out.append(",\"mfgr\":"), product.getMfgr());
+                Json.quote(out.append(",\"model\":"), product.getModel());
+                product.getUnit_list_price().appendTo(out.append(",\"price\":"));
+                out.append(",\"unitsInStock\":").append(product.getUnits_in_stock()).append('}');
+                respond(exchange, 200, out);
+            }
+        } finally {
+            manager.close();
+        }
+    } // End of products method
+
+    private void customers(HttpExchange exchange) {
+        if (!isMethod(exchange, "GET")) return;
+        String id = item(exchange, "/customers");
+        EntityManager manager = factory.createEntityManager();
+        try {
+            if (id == null) {
+                Map<String, String> query = query(exchange);
+                List<CustomerSummary> page = Listings.customerSummariesPage(manager,
+                        parseLong("after", query.getOrDefault("after", "0")), pageSize(query));
+                StringBuilder out = new StringBuilder(64 + 64 * page.size()).append("{\"customers\":[");
+                for (int i = 0; i < page.size(); i++) {
+                    if (i > 0) out.append(',');
+                    CustomerSummary customer = page.get(i);
+                    out.append("{\"customerId\":").append(customer.getCustomerId());
+                    Json.quote(out.append(",\"lastName\":"), customer.getLastName());
+                    Json.quote(out.append(",\"firstName\":"), customer.getFirstName()).append('}');
+                }
+                out.append("],\"next\":");
+                if (page.size() < pageSize(query)) {
+                    out.append("null");
+                } else {
+                    out.append(page.get(page.size() - 1).getCustomerId());
+                }
+                respond(exchange, 200, out.append('}'));
+            } else {
+                Customers customer = manager.find(Customers.class, parseLong("customer ID", id),
+                        Collections.singletonMap(QueryHints.READ_ONLY, HintValues.TRUE));
+                if (customer == null) {
+                    respond(exchange, 404, error("No customer with ID " + id));
+                    return;
+                }
+                StringBuilder out = new StringBuilder(256);
+                out.append("{\"customerId\":").append(customer.getCustomer_id());
+                Json.quote(out.append(",\"lastName\":"), customer.getLast_name());
+                Json.quote(out.append(",\"firstName\":"), customer.getFirst_name());
+                Json.quote(out.append(",\"street\":"), customer.getStreet());
+                Json.quote(out.append(",\"zip\":"), customer.getZip());
+                Json.quote(out.append(",\"phone\":"), customer.getPhone()).append('}');
+                respond(exchange, 200, out);
+            }
+        } finally {
+            manager.close();
+        }
+    } // End of customers method
+
+    /**
+     * Hand the order to the writer and return; the response is sent when the writer is done
+     * with it.  Completion is moved onto the executor, so that writing the response never holds
+     * up the writer's own thread.
+     */
+    private void orders(HttpExchange exchange) throws IOException {
+        if (!isMethod(exchange, "POST")) return;
+        if (item(exchange, "/orders") != null) {
+            respond(exchange, 404, error("No such resource"));
+            return;
+        }
+        OrderRequest request = toRequest(Json.parse(readBody(exchange)));
+        if (groupWriter != null) {
+            groupWriter.submit(request).whenCompleteAsync((order, failure) -> {
+                if (failure != null) {
+                    fail(exchange, failure);
+                } else {
+                    respond(exchange, 201, toJson(order));
+                }
+            }, executor);
+        } else {
+            journaledWriter.submit(request).whenCompleteAsync((sequence, failure) -> {
+                if (failure != null) {
+                    fail(exchange, failure);
+                } else {
+                    respond(exchange, 202, new StringBuilder("{\"sequence\":").append(sequence).append('}'));
+                }
+            }, executor);
+        }
+    } // End of orders method
+
+    private static StringBuilder toJson(Orders order) {
+        StringBuilder out = new StringBuilder(128);
+        out.append("{\"orderId\":").append(order.getOrder_id());
+        out.append(",\"customerId\":").append(order.getCustomer().getCustomer_id());
+        Json.quote(out.append(",\"orderDate\":"), order.getOrder_date().toString());
+        return Json.quote(out.append(",\"soldBy\":"), order.getSold_by()).append('}');
+    }
+
+    /**
+     * Turn a parsed order body into an OrderRequest, and check it the way the writers will, so
+     * that an order which can never be placed is answered with 400 here rather than accepted.
+     *
+     * @throws IllegalArgumentException If anything is missing, of the wrong type, or out of range.
+     */
+    static OrderRequest toRequest(Object body) {
+        if (!(body instanceof Map)) throw new IllegalArgumentException("The order must be a JSON object");
+        Map<?, ?> order = (Map<?, ?>) body;
+        Object customerId = order.get("customerId");
+        Object soldBy = order.get("soldBy");
+        Object lines = order.get("lines");
+        if (!(customerId instanceof BigDecimal)) throw new IllegalArgumentException("customerId must be a number");
+        if (!(soldBy instanceof String)) throw new IllegalArgumentException("soldBy must be a string");
+        if (!(lines instanceof List)) throw new IllegalArgumentException("lines must be an array");
+        List<OrderRequest.Line> requestLines = new ArrayList<>();
+        for (Object line : (List<?>) lines) {
+            if (!(line instanceof Map)) throw new IllegalArgumentException("Each line must be a JSON object");
+            Object upc = ((Map<?, ?>) line).get("upc");
+            Object quantity = ((Map<?, ?>) line).get("quantity");
+            if (!(upc instanceof String)) throw new IllegalArgumentException("upc must be a string");
+            if (!(quantity instanceof BigDecimal)) throw new IllegalArgumentException("quantity must be a number");
+            requestLines.add(new OrderRequest.Line((String) upc, (int) whole((BigDecimal) quantity, "quantity", true)));
+        }
+        return new OrderRequest(whole((BigDecimal) customerId, "customerId", false), (String) soldBy, requestLines)
+                .validate();
+    }
+
+    /**
+     * The number as a long (or an int), without ever expanding it: longValueExact and
+     * intValueExact give up on the precision and scale alone, so a body such as 1e100000000 is
+     * refused at once.  toPlainString would write out all of its digits, so the message does not
+     * use it.
+     */
+    private static long whole(BigDecimal number, String name, boolean isInt) {
+        try {
+            return isInt ? number.intValueExact() : number.longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(name + " must be a whole number in range");
+        }
+    }
+
+    /** Answer 405 unless the request uses the given method. */
+    private boolean isMethod(HttpExchange exchange, String method) {
+        if (exchange.getRequestMethod().equals(method)) return true;
+        exchange.getResponseHeaders().set("Allow", method);
+        respond(exchange, 405, error("Use " + method));
+        return false;
+    }
+
+    /** @return What follows /context/ in the path, or null if the path is just /context. */
+    private static String item(HttpExchange exchange, String context) {
+        String path = exchange.getRequestURI().getPath();
+        if (path.length() <= context.length() + 1) return null;
+        return path.substring(context.length() + 1);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return parameters;
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) continue;
+            parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static int pageSize(Map<String, String> query) {
+        String limit = query.get("limit");
+        if (limit == null) return DEFAULT_PAGE_SIZE;
+        long size = parseLong("limit", limit);
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be from 1 to " + MAX_PAGE_SIZE + ", was " + size);
+        }
+        return (int) size;
+    }
+
+    private static long parseLong(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number, was " + value);
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            for (int read; (read = in.read(chunk)) > 0; ) {
+                body.write(chunk, 0, read);
+                if (body.size() > MAX_BODY) {
+                    throw new IllegalArgumentException("The order is bigger than " + MAX_BODY + " bytes");
+                }
+            }
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    private static StringBuilder error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append('}');
+    }
+
+    /** Answer with the status that fits what went wrong. */
+    private void fail(HttpExchange exchange, Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        int status;
+        if (failure instanceof IllegalArgumentException) {
+            status = 400;
+        } else if (failure instanceof InsufficientStockException) {
+            status = 409;
+        } else if (failure instanceof IllegalStateException) {
+            // The writer has been closed: we are shutting down.
+            status = 503;
+        } else {
+            status = 500;
+            if (LOGGER.isLoggable(Level.WARNING)) {
+                LOGGER.log(Level.WARNING, exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed", failure);
+            }
+        }
+        respond(exchange, status, error(String.valueOf(failure.getMessage())));
+    }
+
+    private static void respond(HttpExchange exchange, int status, CharSequence body) {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } catch (IOException e) {
+            // The client went away; there is nobody left to tell.
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Could not answer " + exchange.getRequestURI(), e);
+            }
+        } finally {
+            exchange.close();
+            Metrics.stop(Metrics.HTTP_REQUEST, (Long) exchange.getAttribute(STARTED));
+        }
+    }
+
+    /**
+     * Stop listening, give requests in progress up to a second to finish, and stop the threads.
+     * The writer and the EntityManagerFactory belong to the caller and are left open.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serve the API until the JVM is stopped.  The database comes from the persistence profile,
+     * as for CustomerOrders; -Dcsulb.cecs323.http.port picks the port, and
+     * -Dcsulb.cecs323.http.journal takes orders through a journal in that directory.
+     */
+    public static void main(String[] args) {
+        EntityManagerFactory factory = PersistenceProfile.fromSystemProperties().createEntityManagerFactory();
+        InetSocketAddress address = new InetSocketAddress(Integer.getInteger(PORT, DEFAULT_PORT));
+        int threads = Integer.getInteger(THREADS, DEFAULT_THREADS);
+        String journalDirectory = System.getProperty(JOURNAL);
+        List<AutoCloseable> closing = new ArrayList<>();
+        if (journalDirectory == null) {
+            GroupCommitOrderWriter writer = new GroupCommitOrderWriter(factory);
+            closing.add(writer);
+            closing.add(0, new OrderHttpServer(factory, address, writer, threads));
+        } else {
+            OrderJournal journal = OrderJournal.open(Paths.get(journalDirectory));
+            JournaledOrderWriter writer = new JournaledOrderWriter(factory, journal);
+            closing.add(journal);
+            closing.add(0, writer);
+            closing.add(0, new OrderHttpServer(factory, address, writer, threads));
+        }
+        closing.add(factory::close);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (AutoCloseable resource : closing) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Error while shutting down", e);
+                }
+            }
+        }, "http-shutdown"));
+        System.out.println("Taking orders on http://localhost:" + ((OrderHttpServer) closing.get(0)).getAddress().getPort() + "/");
+    } // End of main method
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default MetricsRegistry: a LatencyHistogram per timer and a LongAdder per counter, held in
+ * memory and read through the JMX MBean (see MetricsMXBean) or directly.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+    private final ConcurrentHashMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordNanos(String timer, long nanos) {
+        // get first: computeIfAbsent may lock even when the key is already there.
+        LatencyHistogram histogram = timers.get(timer);
+        if (histogram == null) {
+            histogram = timers.computeIfAbsent(timer, name -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    public void add(String counter, long amount) {
+        LongAdder adder = counters.get(counter);
+        if (adder == null) {
+            adder = counters.computeIfAbsent(counter, name -> new LongAdder());
+        }
+        adder.add(amount);
+    }
+
+    /** @return The histogram for a timer, or null if nothing has been recorded for it. */
+    public LatencyHistogram getTimer(String timer) {
+        return timers.get(timer);
+    }
+
+    /** @return The current value of a counter, 0 if it has never been added to. */
+    public long getCounter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /** @return Every timer, by name, in name order. */
+    public Map<String, LatencyHistogram> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    /** @return Every counter's current value, by name, in name order. */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        return values;
+    }
+
+    public void reset() {
+        timers.values().forEach(LatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+}
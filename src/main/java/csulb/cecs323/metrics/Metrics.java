@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The one place the application reports timings and counts to.  Metrics are off unless the
+ * system property {@value #ENABLED_PROPERTY} is true or setEnabled(true) is called.
+ * <p>
+ * Instrumented code follows the same pattern everywhere:
+ * </p>
+ * <pre>
+ *     long start = Metrics.start();
+ *     ... the work being timed ...
+ *     Metrics.stop(Metrics.ORDER_PLACE, start);
+ * </pre>
+ * When metrics are off, start() returns 0 without reading the clock and stop() returns straight
+ * away, so the only cost is reading one volatile field.  Timer and counter names are constants,
+ * so nothing is allocated either way.
+ */
+public final class Metrics {
+    /** Set this system property to true to turn metrics on at startup. */
+    public static final String ENABLED_PROPERTY = "csulb.cecs323.metrics";
+
+    public static final String CREATE_ENTITY = "createEntity";
+    public static final String BULK_LOAD = "bulkLoad";
+    public static final String QUERY_RETURN_PRODUCTS = "query.ReturnProducts";
+    public static final String QUERY_RETURN_CUSTOMER = "query.ReturnCustomer";
+    public static final String QUERY_RETURN_PRODUCT = "query.ReturnProduct";
+    public static final String QUERY_RETURN_PRODUCTS_BY_UPC = "query.ReturnProductsByUPC";
+    public static final String TX_BEGIN = "tx.begin";
+    public static final String TX_COMMIT = "tx.commit";
+    public static final String ORDER_PLACE = "order.place";
+    public static final String ORDER_GROUP_COMMIT = "order.groupCommit";
+    public static final String JOURNAL_SYNC = "journal.sync";
+    public static final String JOURNAL_APPLY = "journal.apply";
+    public static final String REPORT = "report";
+    public static final String HTTP_REQUEST = "http.request";
+
+    public static final String ROWS_WRITTEN = "rows.written";
+    public static final String ORDERS_PLACED = "orders.placed";
+    public static final String ORDERS_FAILED = "orders.failed";
+    public static final String ORDERS_JOURNALED = "orders.journaled";
+    public static final String CATALOG_HITS = "catalog.hits";
+    public static final String CATALOG_MISSES = "catalog.misses";
+
+    private static final InMemoryMetricsRegistry DEFAULT_REGISTRY = new InMemoryMetricsRegistry();
+
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static volatile MetricsRegistry registry = DEFAULT_REGISTRY;
+
+    private Metrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /** Send metrics somewhere other than the built-in in-memory registry. */
+    public static void setRegistry(MetricsRegistry replacement) {
+        registry = replacement == null ? DEFAULT_REGISTRY : replacement;
+    }
+
+    /** The built-in registry, which is what the MBean reports on. */
+    public static InMemoryMetricsRegistry getDefaultRegistry() {
+        return DEFAULT_REGISTRY;
+    }
+
+    /** @return A start time to pass to stop(), or 0 if metrics are off. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record the time since start() against a timer.  Does nothing if metrics were off when
+     * start() was called.
+     */
+    public static void stop(String timer, long start) {
+        if (start != 0L) {
+            registry.recordNanos(timer, System.nanoTime() - start);
+        }
+    }
+
+    /** Add to a counter, if metrics are on. */
+    public static void count(String counter, long amount) {
+        if (enabled) {
+            registry.add(counter, amount);
+        }
+    }
+
+    /**
+     * Publish the built-in registry over JMX as csulb.cecs323:type=Metrics.  Calling this more
+     * than once is harmless.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("csulb.cecs323:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Jmx(DEFAULT_REGISTRY), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics MBean", e);
+        }
+    }
+
+    /** The MBean itself: a read-only view of an InMemoryMetricsRegistry. */
+    static class Jmx implements MetricsMXBean {
+        private final InMemoryMetricsRegistry metrics;
+
+        Jmx(InMemoryMetricsRegistry metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean on) {
+            Metrics.setEnabled(on);
+        }
+
+        @Override
+        public Map<String, Long> getTimerCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            metrics.getTimers().forEach((name, histogram) -> counts.put(name, histogram.getCount()));
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getP50Millis() {
+            return millis(h -> h.getPercentileNanos(50));
+        }
+
+        @Override
+        public Map<String, Double> getP99Millis() {
+            return millis(h -> h.getPercentileNanos(99));
+        }
+
+        @Override
+        public Map<String, Double> getMaxMillis() {
+            return millis(LatencyHistogram::getMaxNanos);
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return metrics.getCounters();
+        }
+
+        @Override
+        public double getCatalogHitRate() {
+            long hits = metrics.getCounter(CATALOG_HITS);
+            long total = hits + metrics.getCounter(CATALOG_MISSES);
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public void reset() {
+            metrics.reset();
+        }
+
+        private Map<String, Double> millis(ToDoubleFunction<LatencyHistogram> nanos) {
+            Map<String, Double> values = new TreeMap<>();
+            metrics.getTimers().forEach((name, histogram) ->
+                    values.put(name, nanos.applyAsDouble(histogram) / 1_000_000.0));
+            return values;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.metrics;
+
+import java.util.Map;
+
+/**
+ * What the application's metrics look like in JConsole or VisualVM, under the object name
+ * csulb.cecs323:type=Metrics.  Latencies are reported in milliseconds.
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /** Number of calls recorded by each timer. */
+    Map<String, Long> getTimerCounts();
+
+    Map<String, Double> getP50Millis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    /** Every counter, for example rows.written and catalog.hits. */
+    Map<String, Long> getCounters();
+
+    /** The share of ProductCatalog lookups answered from memory, between 0 and 1. */
+    double getCatalogHitRate();
+
+    /** Start counting again from zero. */
+    void reset();
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+package csulb.cecs323.metrics;
+
+/**
+ * Somewhere to send timings and counts.  The built-in InMemoryMetricsRegistry keeps histograms
+ * that can be read over JMX; an application that already has a metrics system can plug in its own
+ * implementation with Metrics.setRegistry.
+ * <p>
+ * Both methods are called on the hot paths, from many threads at once, so implementations should
+ * be thread safe and should not allocate for names that they have seen before.
+ * </p>
+ */
+public interface MetricsRegistry {
+    /**
+     * Record how long one operation took.
+     *
+     * @param timer The name of the operation, for example "order.place".
+     * @param nanos How long it took, in nanoseconds.
+     */
+    void recordNanos(String timer, long nanos);
+
+    /**
+     * Add to a running count.
+     *
+     * @param counter The name of the count, for example "rows.written".
+     * @param amount  How much to add.
+     */
+    void add(String counter, long amount);
+}
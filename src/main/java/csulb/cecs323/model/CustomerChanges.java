@@ -0,0 +1,111 @@
+package csulb.cecs323.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+/**
+ * Tells in-memory indexes of Customers (see CustomerDirectory) when a customer is inserted,
+ * changed or deleted through JPA, so that they stay in step with the CUSTOMERS table.
+ * <p>
+ * Customers reports each change when it is flushed, but listeners only hear about it once the
+ * transaction has committed, so a change that is rolled back is never announced.  Until then the
+ * changes are held for the thread running the transaction; SessionTuningCustomizer calls
+ * committed() and rolledBack().  Listeners are given a copy of the customer as it was written,
+ * not the entity itself, so they never hold on to an object some EntityManager is managing.
+ * </p>
+ * <p>
+ * While nobody is listening, nothing is held at all, so a transaction that writes millions of
+ * customers (a BulkLoader load, say) costs no memory here.  A listener added part way through a
+ * transaction hears only about the changes flushed after it was added.
+ * </p>
+ */
+public final class CustomerChanges {
+    /** Somebody who wants to hear about customer changes. */
+    public interface Listener {
+        /** The customer was inserted or updated, and the transaction has committed. */
+        void saved(Customers customer);
+
+        /** The customer was deleted, and the transaction has committed.  Only its customer_id is set. */
+        void removed(Customers customer);
+    }
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /** The changes flushed by the transaction open on each thread, latest per customer_id. */
+    private static final ThreadLocal<Map<Long, Change>> PENDING = ThreadLocal.withInitial(LinkedHashMap::new);
+
+    private CustomerChanges() {}
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    static void saved(Customers customer) {
+        if (LISTENERS.isEmpty()) return;
+        PENDING.get().put(customer.getCustomer_id(), new Change(copyOf(customer), false));
+    }
+
+    static void removed(Customers customer) {
+        if (LISTENERS.isEmpty()) return;
+        // Listeners only need to know which customer went.
+        Customers gone = new Customers();
+        gone.setCustomer_id(customer.getCustomer_id());
+        PENDING.get().put(customer.getCustomer_id(), new Change(gone, true));
+    }
+
+    /** The transaction on this thread committed: tell the listeners what it changed. */
+    public static void committed() {
+        Map<Long, Change> changes = PENDING.get();
+        if (changes.isEmpty()) return;
+        PENDING.remove();
+        for (Change change : changes.values()) {
+            for (Listener listener : LISTENERS) {
+                if (change.removed) {
+                    listener.removed(change.customer);
+                } else {
+                    listener.saved(change.customer);
+                }
+            }
+        }
+    }
+
+    /** The transaction on this thread rolled back: forget what it changed. */
+    public static void rolledBack() {
+        PENDING.remove();
+    }
+
+    /** A Customers with the same column values, that no EntityManager knows about. */
+    private static Customers copyOf(Customers customer) {
+        Customers copy = new Customers(customer.getLast_name(), customer.getFirst_name(),
+                customer.getStreet(), customer.getZip(), customer.getPhone());
+        copy.setCustomer_id(customer.getCustomer_id());
+        return copy;
+    }
+
+    private static final class Change {
+        final Customers customer;
+        final boolean removed;
+
+        Change(Customers customer, boolean removed) {
+            this.customer = customer;
+            this.removed = removed;
+        }
+    }
+}
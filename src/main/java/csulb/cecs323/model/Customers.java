@@ -1,7 +1,9 @@
 package csulb.cecs323.model;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+
 import javax.persistence.*;
-import java.util.Objects;
 /*
  * Licensed under the Academic Free License (AFL 3.0).
  *     http://opensource.org/licenses/AFL-3.0
@@ -15,20 +17,81 @@ import java.util.Objects;
  */
 
 @Entity
-@NamedNativeQuery(
+// Cached like Products: the 10,000 most recently used held on to, the rest soft, five minutes
+// at most.  eclipselink.cache.size.Customers and csulb.cecs323.cache.expiry override the limits.
+@Cache(type = CacheType.SOFT_WEAK, size = 10_000, expiry = 300_000)
+// JPQL rather than native SQL, so that rows already in the shared cache are not built again.
+@NamedQuery(
         name="ReturnCustomer",
-        query = "SELECT * " +
-                "FROM   CUSTOMERS ",
-        resultClass = Customers.class
+        query = "SELECT c " +
+                "FROM   Customers c"
+)
+// Keyset pagination: the next page starts after the last customer_id of the previous one.
+@NamedQuery(
+        name="ReturnCustomersAfter",
+        query = "SELECT c " +
+                "FROM   Customers c " +
+                "WHERE  c.customer_id > :after " +
+                "ORDER BY c.customer_id"
+)
+// The same keyset pages, but only the three columns that a listing shows, as plain rows that
+// Listings turns into CustomerSummary objects.  Native, like the Sales* reports, so that no
+// entities are built and nothing goes through the persistence context or the shared cache.
+@NamedNativeQuery(
+        name="ReturnCustomerSummariesAfter",
+        query = "SELECT CUSTOMER_ID, LAST_NAME, FIRST_NAME " +
+                "FROM   CUSTOMERS " +
+                "WHERE  CUSTOMER_ID > ? " +
+                "ORDER BY CUSTOMER_ID"
+)
+// Clerks look customers up by the start of their last name, or by phone or zip.  The
+// LIKE with a trailing % on last_name can use the last_name index as a range scan.
+@NamedQuery(
+        name="ReturnCustomersByLastName",
+        query = "SELECT c " +
+                "FROM   Customers c " +
+                "WHERE  c.last_name LIKE :prefix ESCAPE '\\' " +
+                "ORDER BY c.last_name, c.first_name"
+)
+@NamedQuery(
+        name="ReturnCustomersByPhone",
+        query = "SELECT c " +
+                "FROM   Customers c " +
+                "WHERE  c.phone = :phone"
+)
+@NamedQuery(
+        name="ReturnCustomersByZip",
+        query = "SELECT c " +
+                "FROM   Customers c " +
+                "WHERE  c.zip = :zip"
+)
+@NamedQuery(
+        name="CountCustomers",
+        query = "SELECT COUNT(c) " +
+                "FROM   Customers c"
 )
 // I could have avoided uniqueConstraints and just done
 // one constraint, but this was more fun.
+// The unique constraint's index leads with first_name, so it is no help when searching by
+// last name; each search column gets an index of its own.
 @Table(uniqueConstraints = {@UniqueConstraint(columnNames =
-        {"first_name", "last_name", "phone"})})
+        {"first_name", "last_name", "phone"})},
+        indexes = {@Index(name = "customers_last_name", columnList = "last_name"),
+                   @Index(name = "customers_phone", columnList = "phone"),
+                   @Index(name = "customers_zip", columnList = "zip")})
 /** A person, who has, or might, order products from us. */
 public class Customers {
+    /** Default number of customer ids reserved from the ID_BLOCKS table at a time. */
+    public static final int ID_BLOCK_SIZE = 500;
+
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    // Customer ids are handed out of blocks of ID_BLOCK_SIZE reserved in one round trip, rather
+    // than sharing the default SEQUENCE row with every other entity.  IdAllocationCustomizer
+    // can change the block size without recompiling.
+    @TableGenerator(name = "customer_id_gen", table = "ID_BLOCKS",
+            pkColumnName = "SEQ_NAME", valueColumnName = "NEXT_ID",
+            pkColumnValue = "CUSTOMERS", allocationSize = ID_BLOCK_SIZE)
+    @GeneratedValue(strategy=GenerationType.TABLE, generator = "customer_id_gen")
     /** Surrogate key for customer.  We don't want to
     migrate last name, first name, & phone all over the place.
      */
@@ -107,19 +170,43 @@ public class Customers {
         this.phone = phone;
     }
 
+    @PostPersist
+    @PostUpdate
+    /** Keep any CustomerDirectory up to date. */
+    void announceSave() {
+        CustomerChanges.saved(this);
+    }
+
+    @PostRemove
+    void announceRemove() {
+        CustomerChanges.removed(this);
+    }
+
     @Override
     public String toString () {
         return "Customer- ID: " + this.customer_id + ", Name: " + this.last_name +
                 ", " + this.first_name;
     }
+
+    /**
+     * Two customers are the same customer when they have the same customer_id.  A customer that
+     * has not been persisted yet has no ID (it is still 0), so it is only equal to itself.  The
+     * names are left out on purpose: they can change, and an object's hash code must not change
+     * while it sits in a HashMap or EclipseLink's identity map.
+     */
     @Override
     public boolean equals (Object o) {
-        Customers customer = (Customers) o;
-        return this.getCustomer_id() == customer.getCustomer_id();
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        long id = ((Customers) o).getCustomer_id();
+        return id != 0 && id == this.getCustomer_id();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.getCustomer_id(), this.getLast_name(), this.getFirst_name());
+        return Long.hashCode(this.getCustomer_id());
     }
 }
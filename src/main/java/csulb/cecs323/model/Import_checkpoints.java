@@ -0,0 +1,73 @@
+package csulb.cecs323.model;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+@Entity
+// Read when an import starts and written by SeedImporter's own JDBC in every chunk it commits;
+// there is nothing worth caching.
+@Cacheable(false)
+/**
+ * How far an import that has not finished got: every line of the file before resume_offset has
+ * been committed.  SeedImporter writes it in the same transaction as each chunk's rows, so the
+ * two can never disagree, and deletes it once the file is done.
+ */
+public class Import_checkpoints {
+    @Id
+    @Column(nullable = false, length = 64)
+    /**
+     * The SHA-256, in hex, of the file's absolute path, size and modification time: this
+     * version of this file, and no other.
+     */
+    private String file_key;
+
+    @Column(nullable = false, length = 4096)
+    /** The file's absolute path, for people and for finding checkpoints of its older versions. */
+    private String file_path;
+
+    @Column(nullable = false)
+    /** The byte offset the import resumes from. */
+    private long resume_offset;
+
+    public Import_checkpoints() {}
+
+    public Import_checkpoints(String file_key, String file_path, long resume_offset) {
+        this.file_key = file_key;
+        this.file_path = file_path;
+        this.resume_offset = resume_offset;
+    }
+
+    public String getFile_key() {
+        return file_key;
+    }
+
+    public String getFile_path() {
+        return file_path;
+    }
+
+    public long getResume_offset() {
+        return resume_offset;
+    }
+
+    public void setResume_offset(long resume_offset) {
+        this.resume_offset = resume_offset;
+    }
+
+    @Override
+    public String toString () {
+        return "Import checkpoint- File: " + this.file_path + ", Resume offset: " + this.resume_offset;
+    }
+}
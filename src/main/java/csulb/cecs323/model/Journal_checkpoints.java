@@ -0,0 +1,64 @@
+package csulb.cecs323.model;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+@Entity
+// Read once when a JournaledOrderWriter starts, and written in every transaction it commits;
+// there is nothing worth caching.
+@Cacheable(false)
+/**
+ * How far an order journal has been applied: every entry up to and including applied_through
+ * has been written to Orders and Order_lines (or turned down).  JournaledOrderWriter changes it
+ * in the same transaction as the orders themselves, so the two can never disagree.
+ */
+public class Journal_checkpoints {
+    @Id
+    @Column(nullable = false, length = 36)
+    /**
+     * The journal's id (OrderJournal.getId), a UUID.  Not its directory's name: that can be
+     * shared by two journals, or reused by a new one.
+     */
+    private String journal_id;
+
+    @Column(nullable = false)
+    /** The sequence number of the last entry applied. */
+    private long applied_through;
+
+    public Journal_checkpoints() {}
+
+    public Journal_checkpoints(String journal_id, long applied_through) {
+        this.journal_id = journal_id;
+        this.applied_through = applied_through;
+    }
+
+    public String getJournal_id() {
+        return journal_id;
+    }
+
+    public long getApplied_through() {
+        return applied_through;
+    }
+
+    public void setApplied_through(long applied_through) {
+        this.applied_through = applied_through;
+    }
+
+    @Override
+    public String toString () {
+        return "Journal checkpoint- Journal: " + this.journal_id + ", Applied through: " + this.applied_through;
+    }
+}
@@ -0,0 +1,135 @@
+package csulb.cecs323.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+/**
+ * An amount of money in US $, held as a whole number of cents.
+ * <p>
+ * Prices used to be doubles, which cannot hold most cent amounts exactly (9.97 is really
+ * 9.9700000000000006394884621840901672840118408203125), so a long order added up in doubles
+ * drifts away from the sum of its lines.  Cents in a long are exact, and adding or multiplying
+ * them is plain integer arithmetic.  Money objects are immutable and are what the entities hold;
+ * code that works out many amounts, such as an order total, should do it on the cents with
+ * the static helpers here, which allocate nothing, and only make a Money at the end.
+ * Arithmetic that overflows a long throws ArithmeticException rather than wrapping around.
+ * </p>
+ */
+public final class Money implements Comparable<Money>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * An amount written out in dollars, such as "9.97".
+     *
+     * @throws IllegalArgumentException If it is not a number, or has fractions of a cent.
+     */
+    public static Money parse(String dollars) {
+        try {
+            return of(new BigDecimal(dollars.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an amount of money: " + dollars, e);
+        }
+    }
+
+    /**
+     * An exact decimal amount in dollars, as read from a DECIMAL column.
+     *
+     * @throws IllegalArgumentException If it has fractions of a cent.
+     */
+    public static Money of(BigDecimal dollars) {
+        try {
+            return ofCents(dollars.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Not a whole number of cents: " + dollars, e);
+        }
+    }
+
+    /** An amount in dollars given as a double, rounded to the nearest cent. */
+    public static Money of(double dollars) {
+        return ofCents(Math.round(dollars * 100));
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(plus(cents, other.cents));
+    }
+
+    public Money times(int quantity) {
+        return ofCents(times(cents, quantity));
+    }
+
+    /** Add two amounts of cents. */
+    public static long plus(long cents, long moreCents) {
+        return Math.addExact(cents, moreCents);
+    }
+
+    /** The extension of an order line: a unit price in cents times a quantity. */
+    public static long times(long unitCents, int quantity) {
+        return Math.multiplyExact(unitCents, quantity);
+    }
+
+    /** This amount in dollars, for a DECIMAL column. */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * Write this amount as dollars and cents ("1234.50", "-0.05") without going through a
+     * DecimalFormat or a BigDecimal.
+     */
+    public StringBuilder appendTo(StringBuilder out) {
+        long dollars = cents / 100;
+        long remainder = Math.abs(cents % 100);
+        if (cents < 0 && dollars == 0) out.append('-');
+        out.append(dollars).append('.');
+        if (remainder < 10) out.append('0');
+        return out.append(remainder);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(24)).toString();
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+}
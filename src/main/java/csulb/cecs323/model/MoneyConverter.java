@@ -0,0 +1,36 @@
+package csulb.cecs323.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+/**
+ * Stores Money in a DECIMAL column with two places, so that the column is as exact as the
+ * cents in Java and still reads as dollars to anyone looking at the table.
+ */
+@Converter
+public class MoneyConverter implements AttributeConverter<Money, BigDecimal> {
+    @Override
+    public BigDecimal convertToDatabaseColumn(Money money) {
+        return money == null ? null : money.toBigDecimal();
+    }
+
+    @Override
+    public Money convertToEntityAttribute(BigDecimal dollars) {
+        // A database from before Money still has DOUBLE price columns, which read back as
+        // 9.9700000000000006394...; those are rounded to the cent they were meant to be.
+        return dollars == null ? null : Money.of(dollars.setScale(2, RoundingMode.HALF_EVEN));
+    }
+}
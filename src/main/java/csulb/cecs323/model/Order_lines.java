@@ -29,33 +29,83 @@ association class the way that we are doing here.  It seems to
 me that would be the case.
  */
 @Entity
+// Sales reports (see SalesReports).  Each one totals the order lines of the orders placed in
+// [?1, ?2), read with the orders_order_date index, and returns only the totals: the key, units
+// sold, revenue and how many lines, never the entities themselves.  (Counting distinct orders
+// instead of lines makes Derby take about twice as long.)  QUANTITY is an INTEGER, and so is
+// Derby's SUM of it, so it is summed as a DECIMAL(19) like Product_sales.TOTALS_SQL does.
+@NamedNativeQuery(
+        name="SalesByProduct",
+        query = "SELECT l.PRODUCT_UPC, SUM(CAST(l.QUANTITY AS DECIMAL(19))), SUM(l.QUANTITY * l.UNIT_SALE_PRICE), COUNT(*) " +
+                "FROM   ORDERS o JOIN ORDER_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+                "WHERE  o.ORDER_DATE >= ? AND o.ORDER_DATE < ? " +
+                "GROUP BY l.PRODUCT_UPC"
+)
+@NamedNativeQuery(
+        name="SalesBySalesperson",
+        query = "SELECT o.SOLD_BY, SUM(CAST(l.QUANTITY AS DECIMAL(19))), SUM(l.QUANTITY * l.UNIT_SALE_PRICE), COUNT(*) " +
+                "FROM   ORDERS o JOIN ORDER_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+                "WHERE  o.ORDER_DATE >= ? AND o.ORDER_DATE < ? " +
+                "GROUP BY o.SOLD_BY"
+)
+@NamedNativeQuery(
+        name="SalesByCustomer",
+        query = "SELECT o.CUSTOMER_ID, SUM(CAST(l.QUANTITY AS DECIMAL(19))), SUM(l.QUANTITY * l.UNIT_SALE_PRICE), COUNT(*) " +
+                "FROM   ORDERS o JOIN ORDER_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+                "WHERE  o.ORDER_DATE >= ? AND o.ORDER_DATE < ? " +
+                "GROUP BY o.CUSTOMER_ID"
+)
+@NamedNativeQuery(
+        name="SalesByDay",
+        query = "SELECT DATE(o.ORDER_DATE), SUM(CAST(l.QUANTITY AS DECIMAL(19))), SUM(l.QUANTITY * l.UNIT_SALE_PRICE), COUNT(*) " +
+                "FROM   ORDERS o JOIN ORDER_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+                "WHERE  o.ORDER_DATE >= ? AND o.ORDER_DATE < ? " +
+                "GROUP BY DATE(o.ORDER_DATE)"
+)
+// Every line of the orders placed in [:from, :to), for reading with an OrderLineFetchPlan.
+@NamedQuery(
+        name="ReturnOrderLinesBetween",
+        query = "SELECT l " +
+                "FROM   Order_lines l " +
+                "WHERE  l.order.order_date >= :from AND l.order.order_date < :to"
+)
 @IdClass(Order_lines_pk.class)
 /** The occurrence of a single Product within a single Order */
 public class Order_lines {
+    // Both relationships are lazy, so reading lines does not also read their orders and
+    // products one at a time; pick an OrderLineFetchPlan to read them in bulk instead.
     @Id
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "order_id", referencedColumnName = "order_id")
     /** The order that this line belongs to. */
     private Orders order;
     @Id
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     /** The product ordered in this line item of the order. */
     private Products product;
+    // The key columns again, read only, so that equals and hashCode need not read the order or
+    // the product.  order_id is 0 until the order has one; see orderId.
+    @Column(name = "order_id", insertable = false, updatable = false)
+    private long order_id;
+    @Column(name = "product_upc", insertable = false, updatable = false)
+    private String product_upc;
     @Column(nullable=false)
     /** The number of this item in this order.  If the customer
     changes their mind and wants more of this item, we come
     back to this row and update the quantity.
      */
     private int quantity;
-    @Column(nullable = false)
+    @Column(nullable = false, precision = 12, scale = 2)
+    @Convert(converter = MoneyConverter.class)
     /** The price of this item FOR THIS ORDER.  The customer might
     have scored a discount from the unit_list_price for this
     product that is only in effect for this sale.
      */
-    private double unit_sale_price;
+    private Money unit_sale_price;
 
     public Order_lines() {}
 
-    public Order_lines(Orders order, Products product, int quantity, double price) {
+    public Order_lines(Orders order, Products product, int quantity, Money price) {
         this.setOrder(order);
         this.setProduct(product);
         this.setQuantity(quantity);
@@ -68,6 +118,7 @@ public class Order_lines {
 
     public void setOrder(Orders order) {
         this.order = order;
+        this.order_id = order == null ? 0 : order.getOrder_id();
     }
 
     public Products getProduct() {
@@ -76,6 +127,7 @@ public class Order_lines {
 
     public void setProduct(Products product) {
         this.product = product;
+        this.product_upc = product == null ? null : product.getUPC();
     }
 
     public int getQuantity() {
@@ -86,14 +138,28 @@ public class Order_lines {
         this.quantity = quantity;
     }
 
-    public double getUnit_sale_price() {
+    public Money getUnit_sale_price() {
         return unit_sale_price;
     }
 
-    public void setUnit_sale_price(double unit_sale_price) {
+    public void setUnit_sale_price(Money unit_sale_price) {
         this.unit_sale_price = unit_sale_price;
     }
 
+    /**
+     * The order is persisted before its lines, so by now it has its order_id.
+     */
+    @PrePersist
+    private void copyOrderId() {
+        if (this.order_id == 0 && this.order != null) this.order_id = this.order.getOrder_id();
+    }
+
+    /**
+     * The same order and the same product, by UPC; there is at most one such line.  Only the key
+     * columns are compared, so neither the order nor the product is read.  Lines of orders that
+     * have not been persisted yet fall back to comparing those orders, which are in memory.
+     */
+    @Override
     public boolean equals (Object o) {
         boolean results = false;
         if (this == o) {
@@ -102,13 +168,33 @@ public class Order_lines {
             results = false;
         } else {
             Order_lines ol = (Order_lines) o;
-            results = this.getOrder().equals (ol.getOrder()) &&
-                    this.getProduct() == ol.getProduct();
+            if (!Objects.equals(this.product_upc, ol.product_upc)) {
+                results = false;
+            } else if (this.orderId() != 0 || ol.orderId() != 0) {
+                results = this.orderId() == ol.orderId();
+            } else {
+                results = Objects.equals(this.getOrder(), ol.getOrder());
+            }
         }
         return results;
     }
 
-    public int hasCode () {
-        return Objects.hash(this.getOrder(), this.getProduct());
+    /**
+     * The whole key, order_id and UPC, so that the lines of many orders for a few products spread
+     * across a hash table.  A new order's order_id is set when the order is persisted, so make
+     * its lines after that (OrderBuilder does), or keep them out of hash tables until then.
+     */
+    @Override
+    public int hashCode () {
+        return 31 * Long.hashCode(this.orderId()) + (this.product_upc == null ? 0 : this.product_upc.hashCode());
+    }
+
+    /**
+     * The order_id of this line's order.  A line that was read has it in its own column; a new
+     * line asks its order, which is in memory.
+     */
+    private long orderId() {
+        if (this.order_id != 0 || this.order == null) return this.order_id;
+        return this.order.getOrder_id();
     }
 }
@@ -1,7 +1,5 @@
 package csulb.cecs323.model;
 
-import javax.persistence.Column;
-import javax.persistence.Id;
 import java.io.Serializable;
 import java.util.Objects;
 /*
@@ -20,28 +18,31 @@ import java.util.Objects;
  * The primary key class for the Order_lines class.
  */
 public class Order_lines_pk implements Serializable {
-    @Id
-    @Column(nullable = false)
+    private static final long serialVersionUID = 1L;
+
     /*
-    This makes perfect sense when you think about it, but it
-    takes getting used to.  The parent Orders class has an
-    Orders_pk class as its primary key, so that's what migrates
-    in to this PK class.  We do not have to worry about the
-    customer_id that comes down from Customers since that is
-    encapsulated in the Orders_pk object.
+    Note carefully the name and type of this attribute.  The name
+    MUST be the same as the name of the relationship in Order_lines,
+    and the type is the type of the primary key of Orders, which is
+    its surrogate order_id.
      */
     /** The order containing the given product */
-    private Orders_pk order;
-    @Id
-    @Column(nullable = false, length = 30)
+    private long order;
     /** One product within this one order */
     private String product;
 
-    public Orders_pk getOrder() {
+    public Order_lines_pk () {}
+
+    public Order_lines_pk (long order_id, String upc) {
+        this.order = order_id;
+        this.product = upc;
+    }
+
+    public long getOrder() {
         return order;
     }
 
-    public void setOrder(Orders_pk order) {
+    public void setOrder(long order) {
         this.order = order;
     }
 
@@ -62,13 +63,14 @@ public class Order_lines_pk implements Serializable {
             results = false;
         } else {
             Order_lines_pk olpk = (Order_lines_pk) o;
-            results = this.getOrder().equals (olpk.getOrder()) &&
-                    this.getProduct() == olpk.getProduct();
+            results = this.getOrder() == olpk.getOrder() &&
+                    Objects.equals(this.getProduct(), olpk.getProduct());
         }
         return results;
     }
+
     @Override
     public int hashCode () {
-        return Objects.hash (this.getOrder(), this.getProduct());
+        return 31 * Long.hashCode(this.getOrder()) + (this.getProduct() == null ? 0 : this.getProduct().hashCode());
     }
 }
@@ -16,21 +16,51 @@ import java.util.Objects;
  */
 
 @Entity
-@IdClass(Orders_pk.class)
+@NamedQuery(
+        name="ReturnOrderByNaturalKey",
+        query = "SELECT o " +
+                "FROM   Orders o " +
+                "WHERE  o.customer.customer_id = :customer AND o.order_date = :order_date"
+)
+// The (customer, order_date) pair used to be the primary key.  It is still unique: a customer
+// cannot place two orders at the same instant.
+// Sales reports pick orders by a range of order_date.
+@Table(uniqueConstraints = {@UniqueConstraint(name = "orders_customer_date",
+        columnNames = {"customer_id", "order_date"})},
+        indexes = {@Index(name = "orders_order_date", columnList = "order_date")})
 /**
 A request by a Customer for a collection of one or more
 Products.  The Order includes a quantity of each Product
 within the order.
  */
 public class Orders {
+    /** Default number of order ids reserved from the ID_BLOCKS table at a time. */
+    public static final int ID_BLOCK_SIZE = 500;
+
+    /** The longest sold_by the column holds. */
+    public static final int SOLD_BY_LENGTH = 128;
+
     @Id
-    @ManyToOne
+    // Same scheme as Customers: ids come out of blocks reserved in ID_BLOCKS, one round trip per
+    // block.  A single BIGINT is all that migrates into Order_lines, rather than a customer_id
+    // and a TIMESTAMP, so the order line index entries and the joins on them are much narrower.
+    @TableGenerator(name = "order_id_gen", table = "ID_BLOCKS",
+            pkColumnName = "SEQ_NAME", valueColumnName = "NEXT_ID",
+            pkColumnValue = "ORDERS", allocationSize = ID_BLOCK_SIZE)
+    @GeneratedValue(strategy=GenerationType.TABLE, generator = "order_id_gen")
+    /** Surrogate key for the order. */
+    private long order_id;
+    // Lazy, so that reading orders does not also read every customer; see OrderLineFetchPlan.
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
     // I could easily have left the @JoinColumn annotation out
     @JoinColumn(name="customer_id",
-    referencedColumnName = "customer_id")
+    referencedColumnName = "customer_id", nullable = false)
     /** The individual placing the order */
     private Customers customer;
-    @Id
+    // The same column again, read only, so that equals and hashCode can use the customer's ID
+    // without reading the customer.
+    @Column(name = "customer_id", insertable = false, updatable = false)
+    private long customer_id;
     @Column(nullable=false)
     /** When they placed it.  This allows us to distinguish
     one order from another by the same customer.
@@ -38,7 +68,7 @@ public class Orders {
     private LocalDateTime order_date;
     // make this just a string for now.  Perhaps recast Customer to "Person" and make soldby
     // a relationship from Person instead of just a String.  Or a lookup table is fine too.
-    @Column(nullable=false, length=128)
+    @Column(nullable=false, length=SOLD_BY_LENGTH)
     /** The name of the sales person who sold the goods. */
     private String sold_by;
 
@@ -46,17 +76,22 @@ public class Orders {
 
     public Orders (Customers customer, LocalDateTime order_date,
                    String sold_by) {
-        this.customer = customer;
+        this.setCustomer(customer);
         this.order_date = order_date;
         this.sold_by = sold_by;
     }
 
+    public long getOrder_id() {
+        return order_id;
+    }
+
     public Customers getCustomer() {
         return customer;
     }
 
     public void setCustomer(Customers customer) {
         this.customer = customer;
+        this.customer_id = customer == null ? 0 : customer.getCustomer_id();
     }
 
     public LocalDateTime getOrder_date() {
@@ -81,15 +116,27 @@ public class Orders {
                 ", Sold by: " + this.getSold_by();
     }
 
+    /**
+     * Same rule as Orders_pk: the same customer, and order dates that are equal (not merely the
+     * same LocalDateTime object).  Both are columns of this order, so comparing two orders never
+     * reads a customer.  order_id is left out because it is not assigned until the order is
+     * persisted; the natural key is unique as well, and is known from the start.
+     */
     @Override
     public boolean equals (Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
         Orders order = (Orders) o;
-        return (this.getCustomer().equals(order.getCustomer()) &&
-                this.getOrder_date() == order.getOrder_date());
+        return this.customer_id != 0 && this.customer_id == order.customer_id &&
+                Objects.equals(this.getOrder_date(), order.getOrder_date());
     }
 
+    /** Always the same value as the hashCode of this order's Orders_pk. */
     @Override
     public int hashCode () {
-        return Objects.hash(this.getOrder_date(), this.getCustomer());
+        return Orders_pk.hashCode(this.customer_id, this.getOrder_date());
     }
 }
@@ -1,7 +1,5 @@
 package csulb.cecs323.model;
 
-import javax.persistence.Column;
-import javax.persistence.Id;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -18,18 +16,17 @@ import java.util.Objects;
  */
 
 /** The primary key class for Orders */
+/**
+ * The natural key of an order: who placed it and when.  This used to be the primary key of Orders,
+ * and so migrated into every Order_lines row.  Orders now has a surrogate order_id instead, but
+ * the pair is still unique (the orders_customer_date constraint), and it is what Orders' equals
+ * and hashCode are based on, since it is known before the order is persisted.
+ */
 public class Orders_pk implements Serializable {
-    @Id
-    @Column(nullable = false)
-    /*
-    Note carefully the name of this attribute.  It MUST be the
-    same as the name of the object in the child that has the
-    migrating foreign key from the parent.  Even though it's
-    just a surrogate.
-     */
+    private static final long serialVersionUID = 1L;
+
+    /** The customer_id of the customer who placed the order. */
     private long customer;
-    @Id
-    @Column(nullable = false)
     private LocalDateTime order_date;
 
     public Orders_pk () {}
@@ -64,14 +61,23 @@ public class Orders_pk implements Serializable {
             results = false;
         } else {
             Orders_pk orders_pk = (Orders_pk) o;
+            // LocalDateTime is a value: two equal dates are usually two different objects.
             results =   this.getCustomer() == orders_pk.getCustomer() &&
-                        this.getOrder_date() == orders_pk.getOrder_date();
+                        Objects.equals(this.getOrder_date(), orders_pk.getOrder_date());
         }
         return results;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.getCustomer(), this.getOrder_date());
+        return hashCode(this.getCustomer(), this.getOrder_date());
+    }
+
+    /**
+     * The hash code of an order key, worked out from its parts without boxing them, so that
+     * Orders and Orders_pk agree and neither allocates.
+     */
+    static int hashCode(long customer, LocalDateTime order_date) {
+        return 31 * Long.hashCode(customer) + (order_date == null ? 0 : order_date.hashCode());
     }
 }
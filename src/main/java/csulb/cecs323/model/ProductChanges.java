@@ -0,0 +1,82 @@
+package csulb.cecs323.model;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+/**
+ * Tells anybody holding on to copies of Products (a cache, for instance) that a product's price
+ * or stock has changed, so that they can throw their copy away.
+ * <p>
+ * A change made inside a transaction is reported with changing(), and only announced once the
+ * transaction commits: SessionTuningCustomizer calls committed() and rolledBack(), the same way
+ * as for CustomerChanges.  Announcing it any earlier would let a reader, on a database that
+ * does not make it wait for the row lock (MySQL's InnoDB, say), read the old row back into a
+ * cache after being told to forget it, and keep it until it expires.  Changes made through JPA
+ * are reported by the entity itself; code that changes PRODUCTS with SQL has to call changing(),
+ * or changed() if the change has already committed.
+ * </p>
+ */
+public final class ProductChanges {
+    private static final List<Consumer<String>> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /** The UPCs changed by the transaction open on each thread. */
+    private static final ThreadLocal<Set<String>> PENDING = ThreadLocal.withInitial(LinkedHashSet::new);
+
+    private ProductChanges() {}
+
+    /** @param listener Called with the UPC of every product that changes. */
+    public static void addListener(Consumer<String> listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Consumer<String> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /** Report that the product with this UPC has been updated or deleted, and that has committed. */
+    public static void changed(String upc) {
+        for (Consumer<String> listener : LISTENERS) {
+            listener.accept(upc);
+        }
+    }
+
+    /** Report that the transaction open on this thread has updated or deleted the product. */
+    public static void changing(String upc) {
+        PENDING.get().add(upc);
+    }
+
+    /**
+     * The transaction on this thread committed: take each product it changed out of the shared
+     * cache, then tell the listeners, so that none of them can read the old copy back from it.
+     *
+     * @param evict Evicts a product from the shared cache, given its UPC.
+     */
+    public static void committed(Consumer<String> evict) {
+        Set<String> upcs = PENDING.get();
+        if (upcs.isEmpty()) return;
+        PENDING.remove();
+        for (String upc : upcs) {
+            evict.accept(upc);
+            changed(upc);
+        }
+    }
+
+    /** The transaction on this thread rolled back: forget what it changed. */
+    public static void rolledBack() {
+        PENDING.remove();
+    }
+}
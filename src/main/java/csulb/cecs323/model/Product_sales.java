@@ -0,0 +1,97 @@
+package csulb.cecs323.model;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQuery;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+@Entity
+// Not kept in the shared cache: these rows change with every order, through the SQL below,
+// which EclipseLink never sees.
+@Cacheable(false)
+@NamedQuery(
+        name="ReturnProductSales",
+        query = "SELECT s " +
+                "FROM   Product_sales s " +
+                "ORDER BY s.UPC"
+)
+/** Running totals of everything a product has sold, kept up to date by SalesRollups. */
+public class Product_sales {
+    /** Add ? units, ? revenue and ? orders to the totals of upc ?. */
+    public static final String ADD_SQL =
+            "UPDATE PRODUCT_SALES " +
+            "SET    UNITS = UNITS + ?, REVENUE = REVENUE + ?, ORDER_COUNT = ORDER_COUNT + ? " +
+            "WHERE  UPC = ?";
+
+    /** Start the totals of upc ? at ? units, ? revenue and ? orders. */
+    public static final String INSERT_SQL =
+            "INSERT INTO PRODUCT_SALES (UPC, UNITS, REVENUE, ORDER_COUNT) VALUES (?, ?, ?, ?)";
+
+    /** Every product's totals, worked out from scratch from the order lines. */
+    public static final String TOTALS_SQL =
+            "SELECT PRODUCT_UPC, SUM(CAST(QUANTITY AS DECIMAL(19))), SUM(QUANTITY * UNIT_SALE_PRICE), COUNT(*) " +
+            "FROM   ORDER_LINES " +
+            "GROUP BY PRODUCT_UPC";
+
+    @Id
+    @Column(nullable = false, length = 30)
+    /** The product these totals are for. */
+    private String UPC;
+
+    @Column(nullable = false)
+    /** How many units have been sold. */
+    private long units;
+
+    @Column(nullable = false, precision = 15, scale = 2)
+    @Convert(converter = MoneyConverter.class)
+    /** What they were sold for, all together. */
+    private Money revenue;
+
+    @Column(nullable = false)
+    /** How many orders they were sold in. */
+    private long order_count;
+
+    public Product_sales() {}
+
+    public Product_sales(String UPC, long units, Money revenue, long order_count) {
+        this.UPC = UPC;
+        this.units = units;
+        this.revenue = revenue;
+        this.order_count = order_count;
+    }
+
+    public String getUPC() {
+        return UPC;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public Money getRevenue() {
+        return revenue;
+    }
+
+    public long getOrder_count() {
+        return order_count;
+    }
+
+    @Override
+    public String toString () {
+        return "Product sales- UPC: " + this.UPC + ", Units: " + this.units +
+                ", Revenue: " + this.revenue + ", Orders: " + this.order_count;
+    }
+}
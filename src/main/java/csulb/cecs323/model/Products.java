@@ -1,9 +1,18 @@
 package csulb.cecs323.model;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQuery;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.Version;
+import java.util.Objects;
 /*
  * Licensed under the Academic Free License (AFL 3.0).
  *     http://opensource.org/licenses/AFL-3.0
@@ -17,22 +26,84 @@ import javax.persistence.NamedNativeQuery;
  */
 
 @Entity
+// In the shared cache, the 10,000 most recently used products are held on to and the rest only
+// until the garbage collector wants the memory; any copy is read again after five minutes.  Stock
+// changed with SQL is evicted by InventoryReservations, and in other JVMs by CacheCoordinator.
+// eclipselink.cache.size.Products and csulb.cecs323.cache.expiry override the limits.
+@Cache(type = CacheType.SOFT_WEAK, size = 10_000, expiry = 300_000)
 @NamedNativeQuery(
         name="ReturnProduct",
         query = "SELECT * " +
                 "FROM   PRODUCTS " +
-                "WHERE URL = ?",
+                "WHERE  UPC = ?",
         resultClass = Products.class
 )
 
-@NamedNativeQuery(
+// Many products at once, by primary key.  JPQL rather than native SQL so that the
+// collection parameter is expanded into an IN list with one bind variable per UPC.
+@NamedQuery(
+        name="ReturnProductsByUPC",
+        query = "SELECT p " +
+                "FROM   Products p " +
+                "WHERE  p.UPC IN :upcs"
+)
+
+// JPQL rather than native SQL, so that rows already in the shared cache are not built again.
+@NamedQuery(
         name="ReturnProducts",
-        query = "SELECT * " +
-                "FROM   PRODUCTS ",
-        resultClass = Products.class
+        query = "SELECT p " +
+                "FROM   Products p"
+)
+// Keyset pagination: the next page starts after the last UPC of the previous one.
+@NamedQuery(
+        name="ReturnProductsAfter",
+        query = "SELECT p " +
+                "FROM   Products p " +
+                "WHERE  p.UPC > :after " +
+                "ORDER BY p.UPC"
+)
+// The same keyset pages, but only the four columns that a listing shows, as plain rows that
+// Listings turns into ProductSummary objects.  Native, like the Sales* reports, so that no
+// entities are built and nothing goes through the persistence context or the shared cache.
+@NamedNativeQuery(
+        name="ReturnProductSummariesAfter",
+        query = "SELECT UPC, PROD_NAME, UNIT_LIST_PRICE, UNITS_IN_STOCK " +
+                "FROM   PRODUCTS " +
+                "WHERE  UPC > ? " +
+                "ORDER BY UPC"
+)
+
+@NamedQuery(
+        name="CountProducts",
+        query = "SELECT COUNT(p) " +
+                "FROM   Products p"
+)
+
+// Take stock only if there is enough of it on hand.  The check and the decrement happen in
+// the same statement, so two orders can never both take the last unit.
+@NamedNativeQuery(
+        name="ReserveProduct",
+        query = Products.RESERVE_SQL
+)
+
+@NamedNativeQuery(
+        name="ReleaseProduct",
+        query = Products.RELEASE_SQL
 )
 /** Something that we stock, that the customer can order. */
 public class Products {
+    /** Subtract ? units from product ? only if at least ? units are in stock. */
+    public static final String RESERVE_SQL =
+            "UPDATE PRODUCTS " +
+            "SET    UNITS_IN_STOCK = UNITS_IN_STOCK - ?, VERSION = VERSION + 1 " +
+            "WHERE  UPC = ? AND UNITS_IN_STOCK >= ?";
+
+    /** Put ? units of product ? back in stock. */
+    public static final String RELEASE_SQL =
+            "UPDATE PRODUCTS " +
+            "SET    UNITS_IN_STOCK = UNITS_IN_STOCK + ?, VERSION = VERSION + 1 " +
+            "WHERE  UPC = ?";
+
     @Id
     @Column(nullable = false, length = 30)
     /** The Product Universal Product Code */
@@ -50,15 +121,20 @@ public class Products {
     /** The manufacturer's model number for this product. */
     private String model;
 
-    @Column(nullable = false)
+    @Column(nullable = false, precision = 12, scale = 2)
+    @Convert(converter = MoneyConverter.class)
     /** Price in US $ */
-    private double unit_list_price;
+    private Money unit_list_price;
 
     @Column(nullable = false)
     /** The quantity of this item that we have on hand. */
     private int units_in_stock;
 
-    public Products(String UPC, String prod_name, String mfgr, String model, double unit_list_price, int units_in_stock) {
+    @Version
+    /** Bumped on every change, so that a stale copy of this product cannot overwrite a newer one. */
+    private long version;
+
+    public Products(String UPC, String prod_name, String mfgr, String model, Money unit_list_price, int units_in_stock) {
         this.UPC = UPC;
         this.prod_name = prod_name;
         this.mfgr = mfgr;
@@ -101,11 +177,11 @@ public class Products {
         this.model = model;
     }
 
-    public double getUnit_list_price() {
+    public Money getUnit_list_price() {
         return unit_list_price;
     }
 
-    public void setUnit_list_price(double unit_list_price) {
+    public void setUnit_list_price(Money unit_list_price) {
         this.unit_list_price = unit_list_price;
     }
 
@@ -117,9 +193,36 @@ public class Products {
         this.units_in_stock = units_in_stock;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    @PostUpdate
+    @PostRemove
+    /** Let any caches of this product know that their copy is out of date, once this commits. */
+    void announceChange() {
+        ProductChanges.changing(this.UPC);
+    }
+
     @Override
     public String toString () {
         return "Product- UPC: " + this.UPC + ", Name: " + this.prod_name + ", Price: " + this.unit_list_price
                 + " QTY on hand: " + this.units_in_stock;
     }
+
+    /** Products are identified by their UPC, which is assigned when the product is created. */
+    @Override
+    public boolean equals (Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Objects.equals(this.UPC, ((Products) o).UPC);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.UPC == null ? 0 : this.UPC.hashCode();
+    }
 }
@@ -0,0 +1,98 @@
+package csulb.cecs323.model;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQuery;
+/*
+ * Licensed under the Academic Free License (AFL 3.0).
+ *     http://opensource.org/licenses/AFL-3.0
+ *
+ *  This code is distributed to CSULB students in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, other than educational.
+ *
+ *  2021 David Brown <david.brown@csulb.edu>
+ *
+ */
+
+@Entity
+// Not kept in the shared cache: these rows change with every order, through the SQL below,
+// which EclipseLink never sees.
+@Cacheable(false)
+@NamedQuery(
+        name="ReturnSalespersonSales",
+        query = "SELECT s " +
+                "FROM   Salesperson_sales s " +
+                "ORDER BY s.sold_by"
+)
+/** Running totals of everything a salesperson has sold, kept up to date by SalesRollups. */
+public class Salesperson_sales {
+    /** Add ? units, ? revenue and ? orders to the totals of sold_by ?. */
+    public static final String ADD_SQL =
+            "UPDATE SALESPERSON_SALES " +
+            "SET    UNITS = UNITS + ?, REVENUE = REVENUE + ?, ORDER_COUNT = ORDER_COUNT + ? " +
+            "WHERE  SOLD_BY = ?";
+
+    /** Start the totals of sold_by ? at ? units, ? revenue and ? orders. */
+    public static final String INSERT_SQL =
+            "INSERT INTO SALESPERSON_SALES (SOLD_BY, UNITS, REVENUE, ORDER_COUNT) VALUES (?, ?, ?, ?)";
+
+    /** Every salesperson's totals, worked out from scratch from the orders and their lines. */
+    public static final String TOTALS_SQL =
+            "SELECT o.SOLD_BY, SUM(CAST(l.QUANTITY AS DECIMAL(19))), SUM(l.QUANTITY * l.UNIT_SALE_PRICE), " +
+            "       COUNT(DISTINCT o.ORDER_ID) " +
+            "FROM   ORDERS o JOIN ORDER_LINES l ON l.ORDER_ID = o.ORDER_ID " +
+            "GROUP BY o.SOLD_BY";
+
+    @Id
+    @Column(nullable = false, length = 128)
+    /** The salesperson these totals are for, as in Orders.sold_by. */
+    private String sold_by;
+
+    @Column(nullable = false)
+    /** How many units have been sold. */
+    private long units;
+
+    @Column(nullable = false, precision = 15, scale = 2)
+    @Convert(converter = MoneyConverter.class)
+    /** What they were sold for, all together. */
+    private Money revenue;
+
+    @Column(nullable = false)
+    /** How many orders they were sold in. */
+    private long order_count;
+
+    public Salesperson_sales() {}
+
+    public Salesperson_sales(String sold_by, long units, Money revenue, long order_count) {
+        this.sold_by = sold_by;
+        this.units = units;
+        this.revenue = revenue;
+        this.order_count = order_count;
+    }
+
+    public String getSold_by() {
+        return sold_by;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public Money getRevenue() {
+        return revenue;
+    }
+
+    public long getOrder_count() {
+        return order_count;
+    }
+
+    @Override
+    public String toString () {
+        return "Salesperson sales- SOLD_BY: " + this.sold_by + ", Units: " + this.units +
+                ", Revenue: " + this.revenue + ", Orders: " + this.order_count;
+    }
+}